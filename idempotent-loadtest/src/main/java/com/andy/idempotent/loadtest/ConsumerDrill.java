@@ -0,0 +1,133 @@
+package com.andy.idempotent.loadtest;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import com.andy.idempotent.error.IdempotentException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 消息消费幂等演练：通过内存消息队列投递带重复的消息（发送端重复、同时投递给两个消费者、失败重新投递），
+ * 经过@IdempotentConsumer的批量认领，最后检查每条消息都被处理且只处理了一次
+ * @author andy
+ *
+ */
+@Component
+@Slf4j
+public class ConsumerDrill {
+
+    @Autowired
+    private LoadTestProperties properties;
+
+    @Autowired
+    private OrderMessageListener orderMessageListener;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * 依次演练redis存储和数据库存储，返回是否都满足exactly-once
+     */
+    public boolean run(String runId) throws InterruptedException {
+        if (properties.getConsumerMessages() <= 0)
+            return true;
+        ExecutionLedger redisLedger = orderMessageListener.getRedisLedger();
+        boolean redisOk = drill("redis", runId + "-redis-", orderMessageListener::onRedisMessages, () -> messageId ->
+                redisLedger.getFirstExecutionId(messageId) == null ? 0 : redisLedger.getDoubleExecutions().getOrDefault(messageId, 1));
+        boolean dbOk = drill("db", runId + "-db-", orderMessageListener::onDbMessages, () -> {
+            Map<String, Integer> counts = countDb(runId + "-db-");
+            return messageId -> counts.getOrDefault(messageId, 0);
+        });
+        return redisOk && dbOk;
+    }
+
+    private boolean drill(String storage, String idPrefix, Consumer<List<OrderMessage>> listener, Supplier<Function<String, Integer>> executions) throws InterruptedException {
+        InMemoryBroker broker = new InMemoryBroker(properties.getConsumerConcurrentDuplicateRatio());
+        Random random = new Random(properties.getSeed());
+        int published = 0;
+        for (int i = 0; i < properties.getConsumerMessages(); i++) {
+            OrderMessage message = new OrderMessage(idPrefix + i, "order-" + i);
+            broker.publish(message);
+            published++;
+            // 发送端重复发送
+            if (random.nextDouble() < properties.getDuplicateRatio()) {
+                broker.publish(new OrderMessage(message.getMessageId(), message.getOrderNo()));
+                published++;
+            }
+        }
+        Map<String, AtomicLong> failures = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(properties.getConsumerThreads());
+        long start = System.nanoTime();
+        for (int i = 0; i < properties.getConsumerThreads(); i++) {
+            executor.execute(() -> {
+                while (!Thread.currentThread().isInterrupted() && !broker.isDrained()) {
+                    List<OrderMessage> batch;
+                    try {
+                        batch = broker.poll(properties.getConsumerBatchSize());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    if (batch.isEmpty())
+                        continue;
+                    try {
+                        listener.accept(batch);
+                        broker.ack(batch);
+                    } catch (IdempotentException e) {
+                        failures.computeIfAbsent(e.getErrorCode(), code -> new AtomicLong()).incrementAndGet();
+                        broker.nack(batch);
+                    } catch (RuntimeException e) {
+                        failures.computeIfAbsent(e.getClass().getSimpleName(), code -> new AtomicLong()).incrementAndGet();
+                        broker.nack(batch);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        boolean finished = executor.awaitTermination(10, TimeUnit.MINUTES);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        executor.shutdownNow();
+
+        // 每条消息（包括重复发送的）必须恰好处理一次
+        Function<String, Integer> counts = executions.get();
+        long missing = 0;
+        long doubles = 0;
+        for (int i = 0; i < properties.getConsumerMessages(); i++) {
+            int count = counts.apply(idPrefix + i);
+            if (count == 0)
+                missing++;
+            else if (count > 1)
+                doubles++;
+        }
+        log.info("####### consumer drill [{}]: published={}, deliveries={}, redeliveries={}, failures={}, {}s, missing={}, double exec={}",
+                storage, published, broker.getDeliveries(), broker.getRedeliveries(), failures, String.format("%.2f", seconds), missing, doubles);
+        if (!finished || missing > 0 || doubles > 0) {
+            log.error("####### consumer idempotency violated [{}]: finished={}, missing={}, double exec={}", storage, finished, missing, doubles);
+            return false;
+        }
+        return true;
+    }
+
+    private Map<String, Integer> countDb(String idPrefix) {
+        Map<String, Integer> counts = new HashMap<>();
+        jdbcTemplate.query("select message_id, count(*) from loadtest_order where message_id like ? group by message_id", rs -> {
+            counts.put(rs.getString(1), rs.getInt(2));
+        }, idPrefix + "%");
+        return counts;
+    }
+}
@@ -0,0 +1,27 @@
+package com.andy.idempotent.loadtest;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import lombok.extern.slf4j.Slf4j;
+import redis.embedded.RedisServer;
+
+/**
+ * 内嵌redis（redis连接和锁都是第一次使用时才建立，压测开始前已经启动完成）
+ * @author andy
+ *
+ */
+@Configuration
+@ConditionalOnProperty(name = "loadtest.embedded-redis", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class EmbeddedRedisConfiguration {
+
+    @Bean(destroyMethod = "stop")
+    public RedisServer embeddedRedisServer(LoadTestProperties properties) {
+        RedisServer redisServer = RedisServer.builder().port(properties.getRedisPort()).setting("maxmemory 512M").build();
+        redisServer.start();
+        log.info("####### embedded redis started on port {}", properties.getRedisPort());
+        return redisServer;
+    }
+}
@@ -0,0 +1,65 @@
+package com.andy.idempotent.loadtest;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * 业务方法执行台账：记录每个业务单号真正执行了几次，用来检查幂等是否失效
+ * @author andy
+ *
+ */
+@Component
+public class ExecutionLedger {
+
+    private final AtomicLong executionIdGenerator = new AtomicLong();
+
+    // 业务单号 -> 第一次执行的编号
+    private final Map<String, Long> firstExecutions = new ConcurrentHashMap<>();
+
+    // 重复执行的业务单号 -> 执行次数
+    private final Map<String, Integer> doubleExecutions = new ConcurrentHashMap<>();
+
+    // 当前线程的调用是否真正执行了业务方法（业务方法和调用方在同一个线程中执行）
+    private final ThreadLocal<Boolean> executed = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    /**
+     * 记录一次业务执行，返回执行编号
+     */
+    public long recordExecution(String orderNo) {
+        long executionId = executionIdGenerator.incrementAndGet();
+        executed.set(Boolean.TRUE);
+        if (firstExecutions.putIfAbsent(orderNo, executionId) != null)
+            doubleExecutions.merge(orderNo, 2, (count, one) -> count + 1);
+        return executionId;
+    }
+
+    public void resetExecuted() {
+        executed.set(Boolean.FALSE);
+    }
+
+    public boolean isExecuted() {
+        return executed.get();
+    }
+
+    public Long getFirstExecutionId(String orderNo) {
+        return firstExecutions.get(orderNo);
+    }
+
+    /**
+     * 执行过的业务单号数
+     */
+    public int getExecutedKeys() {
+        return firstExecutions.size();
+    }
+
+    public long getExecutions() {
+        return executionIdGenerator.get();
+    }
+
+    public Map<String, Integer> getDoubleExecutions() {
+        return doubleExecutions;
+    }
+}
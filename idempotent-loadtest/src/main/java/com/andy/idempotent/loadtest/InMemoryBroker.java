@@ -0,0 +1,88 @@
+package com.andy.idempotent.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 内存消息队列（代替kafka/rabbitmq，at-least-once投递）：
+ * 按比例把同一批消息同时投递给两个消费者（模拟rebalance），处理失败的整批重新投递
+ * @author andy
+ *
+ */
+public class InMemoryBroker {
+
+    private final LinkedBlockingQueue<OrderMessage> queue = new LinkedBlockingQueue<>();
+
+    // 已经拉取还没有确认的批次数
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicLong deliveries = new AtomicLong();
+
+    private final AtomicLong redeliveries = new AtomicLong();
+
+    private final double concurrentDuplicateRatio;
+
+    public InMemoryBroker(double concurrentDuplicateRatio) {
+        this.concurrentDuplicateRatio = concurrentDuplicateRatio;
+    }
+
+    public void publish(OrderMessage message) {
+        queue.add(message);
+    }
+
+    /**
+     * 拉取一批消息（没有消息时返回空列表），处理完必须调用ack或nack
+     */
+    public List<OrderMessage> poll(int batchSize) throws InterruptedException {
+        List<OrderMessage> batch = new ArrayList<>(batchSize);
+        inFlight.incrementAndGet();
+        OrderMessage first = queue.poll(10, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            inFlight.decrementAndGet();
+            return batch;
+        }
+        batch.add(first);
+        queue.drainTo(batch, batchSize - 1);
+        deliveries.addAndGet(batch.size());
+        // 同一批消息同时再投递给另一个消费者
+        if (ThreadLocalRandom.current().nextDouble() < concurrentDuplicateRatio) {
+            queue.addAll(batch);
+            redeliveries.addAndGet(batch.size());
+        }
+        return batch;
+    }
+
+    public void ack(List<OrderMessage> batch) {
+        if (!batch.isEmpty())
+            inFlight.decrementAndGet();
+    }
+
+    /**
+     * 处理失败，整批重新投递
+     */
+    public void nack(List<OrderMessage> batch) {
+        queue.addAll(batch);
+        redeliveries.addAndGet(batch.size());
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * 所有消息都已经投递并确认
+     */
+    public boolean isDrained() {
+        return inFlight.get() == 0 && queue.isEmpty();
+    }
+
+    public long getDeliveries() {
+        return deliveries.get();
+    }
+
+    public long getRedeliveries() {
+        return redeliveries.get();
+    }
+}
@@ -0,0 +1,22 @@
+package com.andy.idempotent.loadtest;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * 幂等组件压测程序：启动内嵌redis和H2，按配置的负载模型重放大量重复请求，输出吞吐量、延迟分布和正确性（业务方法没有被重复执行）
+ * @author andy
+ *
+ */
+@SpringBootApplication
+@EnableConfigurationProperties(LoadTestProperties.class)
+public class LoadTestApplication {
+
+    public static void main(String[] args) {
+        ConfigurableApplicationContext context = SpringApplication.run(LoadTestApplication.class, args);
+        // 存在重复执行时以非0退出，方便在发布流水线中使用
+        System.exit(SpringApplication.exit(context));
+    }
+}
@@ -0,0 +1,53 @@
+package com.andy.idempotent.loadtest;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * 压测负载配置
+ * @author andy
+ *
+ */
+@Data
+@ConfigurationProperties(prefix = "loadtest")
+public class LoadTestProperties {
+
+    // 是否启动内嵌redis（false时连接spring.redis配置的redis）
+    private boolean embeddedRedis = true;
+    private int redisPort = 16379;
+    // 随机种子，相同的种子生成相同的请求序列
+    private long seed = 20200101L;
+    // 预热的请求数（不计入结果）
+    private int warmupOperations = 2000;
+    // 逻辑请求数
+    private int operations = 20000;
+    // 每个逻辑请求同时发出的并发副本数（模拟重复点击、网关重试）
+    private int burstSize = 3;
+    // 压测线程数
+    private int threads = 32;
+    // 逻辑请求中重放已发出过的业务单号的比例
+    private double duplicateRatio = 0.3;
+    // zipf分布的key空间大小
+    private int keySpace = 100000;
+    // zipf分布的指数（0-均匀分布，越大越集中在少数热点单号）
+    private double zipfExponent = 1.0;
+    // 请求/响应中附带的业务数据大小（字节）
+    private int payloadBytes = 256;
+    // 业务方法的模拟耗时（毫秒）
+    private long businessMillis = 5;
+    // 响应策略（0-重复请求返回上次结果；1-重复请求提醒）
+    private int responseStrategy = 0;
+    // 是否输出完整的延迟分布（HdrHistogram的百分位表，单位毫秒）
+    private boolean printDistribution = false;
+    // 消息消费演练的消息数（0-不演练，发送端重复的比例同duplicateRatio）
+    private int consumerMessages = 5000;
+    // 每次拉取的消息数
+    private int consumerBatchSize = 20;
+    // 消费线程数
+    private int consumerThreads = 8;
+    // 同一批消息同时投递给两个消费者的比例（模拟rebalance）
+    private double consumerConcurrentDuplicateRatio = 0.1;
+    // 监听方法处理失败（整批重新投递）的比例
+    private double consumerFailureRatio = 0.05;
+}
@@ -0,0 +1,200 @@
+package com.andy.idempotent.loadtest;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.ExitCodeGenerator;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import com.andy.idempotent.error.IdempotentException;
+import com.andy.idempotent.model.IdempotentRequest;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 压测执行器：预热后按请求序列发压，每个逻辑请求同时发出burstSize个副本，统计每种结果的延迟分布，
+ * 最后检查业务方法有没有被重复执行、数据库中的幂等记录和执行台账是否一致
+ * @author andy
+ *
+ */
+@Component
+@Slf4j
+public class LoadTestRunner implements ApplicationRunner, ExitCodeGenerator {
+
+    // 延迟统计的上限（微秒）
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.SECONDS.toMicros(60);
+
+    // 调用结果(EXECUTED-执行了业务方法；REPLAYED-返回了上次的结果；REJECTED-幂等组件提醒重复/稍后重试；ERROR-其他异常)
+    private static final String EXECUTED = "EXECUTED";
+    private static final String REPLAYED = "REPLAYED";
+    private static final String REJECTED = "REJECTED";
+    private static final String ERROR = "ERROR";
+
+    @Autowired
+    private LoadTestProperties properties;
+
+    @Autowired
+    private PaymentEndpoint paymentEndpoint;
+
+    @Autowired
+    private ExecutionLedger executionLedger;
+
+    @Autowired
+    private ConsumerDrill consumerDrill;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicLong> rejectCodes = new ConcurrentHashMap<>();
+
+    // 返回的结果和第一次执行的结果不一致的次数
+    private final AtomicLong mismatchedReplays = new AtomicLong();
+
+    private final AtomicLong errors = new AtomicLong();
+
+    private volatile int exitCode;
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+        String payload = randomPayload(properties.getPayloadBytes(), properties.getSeed());
+        ExecutorService executor = Executors.newFixedThreadPool(properties.getThreads());
+        try {
+            Workload warmup = Workload.generate(properties.getWarmupOperations(), properties.getDuplicateRatio(), properties.getKeySpace(), properties.getZipfExponent(), properties.getSeed() + 1);
+            drive(executor, warmup, runId + "-warmup-", payload);
+            histograms.clear();
+            rejectCodes.clear();
+            mismatchedReplays.set(0);
+            errors.set(0);
+
+            Workload workload = Workload.generate(properties.getOperations(), properties.getDuplicateRatio(), properties.getKeySpace(), properties.getZipfExponent(), properties.getSeed());
+            log.info("####### load test started, operations={}, distinctKeys={}, burstSize={}, threads={}", workload.size(), workload.getDistinctKeys(), properties.getBurstSize(), properties.getThreads());
+            long elapsedNanos = drive(executor, workload, runId + "-", payload);
+            report(workload, elapsedNanos);
+        } finally {
+            executor.shutdownNow();
+        }
+        if (!consumerDrill.run(runId))
+            exitCode = 1;
+    }
+
+    @Override
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * 按请求序列发压，返回耗时（纳秒）
+     */
+    private long drive(ExecutorService executor, Workload workload, String keyPrefix, String payload) throws InterruptedException {
+        int burstSize = Math.max(1, properties.getBurstSize());
+        // 限制排队的任务数，延迟统计的是调用本身而不是线程池排队
+        Semaphore inFlight = new Semaphore(properties.getThreads() * 2);
+        long start = System.nanoTime();
+        for (int i = 0; i < workload.size(); i++) {
+            PaymentRequest request = new PaymentRequest(keyPrefix + workload.key(i), payload);
+            for (int j = 0; j < burstSize; j++) {
+                inFlight.acquire();
+                executor.execute(() -> {
+                    try {
+                        call(request);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+        inFlight.acquire(properties.getThreads() * 2);
+        long elapsedNanos = System.nanoTime() - start;
+        inFlight.release(properties.getThreads() * 2);
+        return elapsedNanos;
+    }
+
+    private void call(PaymentRequest request) {
+        executionLedger.resetExecuted();
+        long start = System.nanoTime();
+        String outcome;
+        try {
+            PaymentResult result = properties.getResponseStrategy() == 1 ? paymentEndpoint.payOnce(request) : paymentEndpoint.pay(request);
+            outcome = executionLedger.isExecuted() ? EXECUTED : REPLAYED;
+            if (result == null || !Objects.equals(result.getExecutionId(), executionLedger.getFirstExecutionId(request.getOrderNo())))
+                mismatchedReplays.incrementAndGet();
+        } catch (IdempotentException e) {
+            outcome = REJECTED;
+            rejectCodes.computeIfAbsent(e.getErrorCode(), code -> new AtomicLong()).incrementAndGet();
+        } catch (Exception e) {
+            outcome = ERROR;
+            if (errors.incrementAndGet() <= 10)
+                log.warn("####### load test call failed, orderNo={}", request.getOrderNo(), e);
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        histograms.computeIfAbsent(outcome, key -> new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3))
+                .recordValue(Math.min(micros, HIGHEST_TRACKABLE_MICROS));
+    }
+
+    private void report(Workload workload, long elapsedNanos) {
+        Histogram total = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        histograms.values().forEach(total::add);
+        double seconds = elapsedNanos / 1e9;
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("%n========== idempotent load test =========%n"));
+        summary.append(String.format("workload      : operations=%d, distinctKeys=%d, burstSize=%d, threads=%d, duplicateRatio=%.2f, zipfExponent=%.2f, payloadBytes=%d, responseStrategy=%d%n",
+                workload.size(), workload.getDistinctKeys(), properties.getBurstSize(), properties.getThreads(), properties.getDuplicateRatio(), properties.getZipfExponent(), properties.getPayloadBytes(), properties.getResponseStrategy()));
+        summary.append(String.format("throughput    : %d calls in %.2fs = %.1f calls/s%n", total.getTotalCount(), seconds, total.getTotalCount() / seconds));
+        summary.append(String.format("%-14s%10s%10s%10s%10s%10s%10s  (ms)%n", "outcome", "count", "p50", "p90", "p99", "p99.9", "max"));
+        Map<String, Histogram> sorted = new TreeMap<>(histograms);
+        sorted.put("ALL", total);
+        sorted.forEach((outcome, histogram) -> summary.append(String.format("%-14s%10d%10.2f%10.2f%10.2f%10.2f%10.2f%n", outcome, histogram.getTotalCount(),
+                histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(90) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMaxValue() / 1000.0)));
+        summary.append(String.format("reject codes  : %s%n", new TreeMap<>(rejectCodes)));
+        summary.append(String.format("errors        : %d%n", errors.get()));
+        // 正确性：每个业务单号最多执行一次，返回的结果都来自第一次执行
+        Map<String, Integer> doubleExecutions = executionLedger.getDoubleExecutions();
+        summary.append(String.format("double exec   : %d%s%n", doubleExecutions.size(), doubleExecutions.isEmpty() ? "" : " e.g. " + doubleExecutions.entrySet().iterator().next()));
+        summary.append(String.format("bad replays   : %d%n", mismatchedReplays.get()));
+        // 数据库中的幂等记录和台账一致：每个执行过的单号一条成功记录，没有遗留的新建/失败记录
+        String interfaceName = properties.getResponseStrategy() == 1 ? "PaymentEndpoint.payOnce" : "PaymentEndpoint.pay";
+        Map<Integer, Integer> statusCounts = new TreeMap<>();
+        jdbcTemplate.query("select status, count(*) from idempotent_request where interface_name = ? group by status",
+                rs -> { statusCounts.put(rs.getInt(1), rs.getInt(2)); }, interfaceName);
+        Integer duplicatedSigns = jdbcTemplate.queryForObject("select count(*) from (select sign from idempotent_request where interface_name = ? group by sign having count(*) > 1) t",
+                Integer.class, interfaceName);
+        int successRows = statusCounts.getOrDefault(IdempotentRequest.STATUS_SUCCESS, 0);
+        boolean dbMismatched = successRows != executionLedger.getExecutedKeys() || successRows != statusCounts.values().stream().mapToInt(Integer::intValue).sum() || duplicatedSigns > 0;
+        summary.append(String.format("db records    : %s (status -> rows), executed keys=%d, duplicated signs=%d%s%n",
+                statusCounts, executionLedger.getExecutedKeys(), duplicatedSigns, dbMismatched ? " MISMATCH" : ""));
+        summary.append("=========================================");
+        log.info(summary.toString());
+        if (properties.isPrintDistribution())
+            total.outputPercentileDistribution(System.out, 1000.0);
+        if (!doubleExecutions.isEmpty() || mismatchedReplays.get() > 0 || dbMismatched) {
+            exitCode = 1;
+            log.error("####### idempotency violated: {} double executions, {} bad replays, db records {} for {} executed keys", doubleExecutions.size(), mismatchedReplays.get(), statusCounts, executionLedger.getExecutedKeys());
+        }
+    }
+
+    private static String randomPayload(int bytes, long seed) {
+        Random random = new Random(seed);
+        char[] chars = new char[Math.max(0, bytes)];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = (char) ('a' + random.nextInt(26));
+        return new String(chars);
+    }
+}
@@ -0,0 +1,21 @@
+package com.andy.idempotent.loadtest;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 压测用的订单消息
+ * @author andy
+ *
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderMessage {
+
+    // 消息ID（重复投递的消息ID相同）
+    private String messageId;
+    // 业务单号
+    private String orderNo;
+}
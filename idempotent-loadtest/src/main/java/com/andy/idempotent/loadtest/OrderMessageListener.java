@@ -0,0 +1,57 @@
+package com.andy.idempotent.loadtest;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import com.andy.idempotent.annotation.IdempotentConsumer;
+
+/**
+ * 压测用的消息监听方法（redis存储和数据库存储各一个），按比例模拟处理失败
+ * @author andy
+ *
+ */
+@Component
+public class OrderMessageListener {
+
+    @Autowired
+    private LoadTestProperties properties;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // redis存储的消费台账（数据库存储的以loadtest_order表为准）
+    private final ExecutionLedger redisLedger = new ExecutionLedger();
+
+    /**
+     * 失败发生在业务执行之前，失败的批次没有副作用，重新投递后必须再处理
+     */
+    @IdempotentConsumer(messageId = "messageId", consumerName = "OrderMessageListener.onRedisMessages")
+    public void onRedisMessages(List<OrderMessage> messages) {
+        injectFailure();
+        for (OrderMessage message : messages)
+            redisLedger.recordExecution(message.getMessageId());
+    }
+
+    /**
+     * 失败发生在业务写库之后，整批回滚（包括认领记录），重新投递后必须再处理
+     */
+    @IdempotentConsumer(messageId = "messageId", consumerName = "OrderMessageListener.onDbMessages", storage = 1)
+    public void onDbMessages(List<OrderMessage> messages) {
+        for (OrderMessage message : messages)
+            jdbcTemplate.update("insert into loadtest_order(message_id, order_no) values (?, ?)", message.getMessageId(), message.getOrderNo());
+        injectFailure();
+    }
+
+    public ExecutionLedger getRedisLedger() {
+        return redisLedger;
+    }
+
+    private void injectFailure() {
+        if (ThreadLocalRandom.current().nextDouble() < properties.getConsumerFailureRatio())
+            throw new IllegalStateException("injected listener failure");
+    }
+}
@@ -0,0 +1,40 @@
+package com.andy.idempotent.loadtest;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.andy.idempotent.annotation.Idempotent;
+
+/**
+ * 压测用的幂等接口（两个方法只有响应策略不同）
+ * @author andy
+ *
+ */
+@Component
+public class PaymentEndpoint {
+
+    @Autowired
+    private ExecutionLedger executionLedger;
+
+    @Autowired
+    private LoadTestProperties properties;
+
+    @Idempotent(idempotentColumns = "request.orderNo", idempotentParamOnly = true, idempotentMinutes = 1440, interfaceName = "PaymentEndpoint.pay")
+    public PaymentResult pay(PaymentRequest request) throws InterruptedException {
+        return doPay(request);
+    }
+
+    @Idempotent(idempotentColumns = "request.orderNo", idempotentParamOnly = true, idempotentMinutes = 1440, interfaceName = "PaymentEndpoint.payOnce", responseStrategy = 1)
+    public PaymentResult payOnce(PaymentRequest request) throws InterruptedException {
+        return doPay(request);
+    }
+
+    private PaymentResult doPay(PaymentRequest request) throws InterruptedException {
+        long executionId = executionLedger.recordExecution(request.getOrderNo());
+        if (properties.getBusinessMillis() > 0)
+            TimeUnit.MILLISECONDS.sleep(properties.getBusinessMillis());
+        return new PaymentResult(request.getOrderNo(), executionId, request.getPayload());
+    }
+}
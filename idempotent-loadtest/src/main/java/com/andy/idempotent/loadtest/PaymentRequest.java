@@ -0,0 +1,21 @@
+package com.andy.idempotent.loadtest;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 压测用的支付请求
+ * @author andy
+ *
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PaymentRequest {
+
+    // 业务单号（幂等字段）
+    private String orderNo;
+    // 业务数据
+    private String payload;
+}
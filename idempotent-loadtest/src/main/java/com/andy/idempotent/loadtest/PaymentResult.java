@@ -0,0 +1,21 @@
+package com.andy.idempotent.loadtest;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 压测用的支付结果（重复请求返回上次结果时，executionId应该和第一次执行的一致）
+ * @author andy
+ *
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PaymentResult {
+
+    private String orderNo;
+    // 业务方法的执行编号
+    private Long executionId;
+    private String payload;
+}
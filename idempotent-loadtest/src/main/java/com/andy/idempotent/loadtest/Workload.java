@@ -0,0 +1,72 @@
+package com.andy.idempotent.loadtest;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 预先生成的请求序列（生成的开销不计入压测结果）
+ * 每个逻辑请求按duplicateRatio决定是新单号还是重放已发出过的单号，重放的单号按zipf分布选择（越早发出的单号越热）
+ * @author andy
+ *
+ */
+public class Workload {
+
+    // 每个逻辑请求的业务单号序号
+    private final int[] keys;
+
+    // 其中新单号的个数
+    private final int distinctKeys;
+
+    private Workload(int[] keys, int distinctKeys) {
+        this.keys = keys;
+        this.distinctKeys = distinctKeys;
+    }
+
+    public static Workload generate(int operations, double duplicateRatio, int keySpace, double zipfExponent, long seed) {
+        Random random = new Random(seed);
+        double[] cdf = zipfCdf(Math.max(1, keySpace), zipfExponent);
+        int[] keys = new int[operations];
+        int next = 0;
+        for (int i = 0; i < operations; i++) {
+            if (next == 0 || random.nextDouble() >= duplicateRatio) {
+                keys[i] = next++;
+            } else {
+                keys[i] = sample(cdf, random) % next;
+            }
+        }
+        return new Workload(keys, next);
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public int key(int operation) {
+        return keys[operation];
+    }
+
+    public int getDistinctKeys() {
+        return distinctKeys;
+    }
+
+    /**
+     * zipf分布的累计概率（exponent为0时是均匀分布）
+     */
+    private static double[] zipfCdf(int keySpace, double exponent) {
+        double[] cdf = new double[keySpace];
+        double sum = 0;
+        for (int rank = 1; rank <= keySpace; rank++) {
+            sum += 1.0 / Math.pow(rank, exponent);
+            cdf[rank - 1] = sum;
+        }
+        for (int i = 0; i < keySpace; i++)
+            cdf[i] /= sum;
+        return cdf;
+    }
+
+    private static int sample(double[] cdf, Random random) {
+        int index = Arrays.binarySearch(cdf, random.nextDouble());
+        index = index >= 0 ? index : -index - 1;
+        return Math.min(index, cdf.length - 1);
+    }
+}
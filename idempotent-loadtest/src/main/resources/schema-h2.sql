@@ -0,0 +1,44 @@
+-- 与idempotent.sql相同的表结构（H2的MySQL兼容模式），response加长以便测试较大的payload
+CREATE TABLE IF NOT EXISTS `idempotent_request` (
+  `id` bigint(19) NOT NULL AUTO_INCREMENT,
+  `prj_name` varchar(64) DEFAULT NULL,
+  `interface_name` varchar(64) DEFAULT NULL,
+  `request_param` varchar(1024) DEFAULT NULL,
+  `response` varchar(1048576) DEFAULT NULL,
+  `biz_column_values` varchar(512) DEFAULT NULL,
+  `sign` varchar(64) DEFAULT NULL,
+  `consumer_sign` varchar(64) DEFAULT NULL,
+  `status` tinyint(1) DEFAULT NULL,
+  `valid_end_time` datetime DEFAULT NULL,
+  `create_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  `update_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (`id`)
+);
+CREATE INDEX IF NOT EXISTS `idx_sign` ON `idempotent_request` (`sign`);
+CREATE UNIQUE INDEX IF NOT EXISTS `uk_consumer_sign` ON `idempotent_request` (`consumer_sign`);
+CREATE INDEX IF NOT EXISTS `idx_valid_end_time` ON `idempotent_request` (`valid_end_time`);
+
+CREATE TABLE IF NOT EXISTS `idempotent_request_archive` (
+  `id` bigint(19) NOT NULL,
+  `prj_name` varchar(64) DEFAULT NULL,
+  `interface_name` varchar(64) DEFAULT NULL,
+  `request_param` varchar(1024) DEFAULT NULL,
+  `response` varchar(1048576) DEFAULT NULL,
+  `biz_column_values` varchar(512) DEFAULT NULL,
+  `sign` varchar(64) DEFAULT NULL,
+  `status` tinyint(1) DEFAULT NULL,
+  `valid_end_time` datetime DEFAULT NULL,
+  `create_time` datetime NOT NULL,
+  `update_time` datetime NOT NULL,
+  `archive_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (`id`)
+);
+
+-- 消息消费演练的业务表（数据库存储的消费记录和它在同一个事务中提交）
+CREATE TABLE IF NOT EXISTS `loadtest_order` (
+  `id` bigint(19) NOT NULL AUTO_INCREMENT,
+  `message_id` varchar(64) NOT NULL,
+  `order_no` varchar(64) NOT NULL,
+  PRIMARY KEY (`id`)
+);
+CREATE INDEX IF NOT EXISTS `idx_message_id` ON `loadtest_order` (`message_id`);
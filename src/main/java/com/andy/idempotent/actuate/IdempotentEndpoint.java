@@ -0,0 +1,100 @@
+package com.andy.idempotent.actuate;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.lang.Nullable;
+
+import com.andy.idempotent.model.IdempotentRequest;
+import com.andy.idempotent.service.IdempotentRecordService;
+
+/**
+ * 幂等记录管理端点（/actuator/idempotent），时间参数均为毫秒时间戳，表示记录的过期时间范围
+ * @author andy
+ *
+ */
+@Endpoint(id = "idempotent")
+public class IdempotentEndpoint {
+
+    // 分页查询默认条数
+    private static final long DEFAULT_LIMIT = 100L;
+
+    private final IdempotentRecordService idempotentRecordService;
+
+    public IdempotentEndpoint(IdempotentRecordService idempotentRecordService) {
+        this.idempotentRecordService = idempotentRecordService;
+    }
+
+    /**
+     * 所有项目名称
+     */
+    @ReadOperation
+    public Set<String> prjNames() {
+        return idempotentRecordService.listPrjNames();
+    }
+
+    /**
+     * 项目下各接口未过期的记录数
+     */
+    @ReadOperation
+    public Map<String, Long> interfaces(@Selector String prjName) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        Set<String> interfaceNames = idempotentRecordService.listInterfaceNames(prjName);
+        if (interfaceNames != null) {
+            for (String interfaceName : interfaceNames)
+                counts.put(interfaceName, idempotentRecordService.count(prjName, interfaceName, null, null));
+        }
+        return counts;
+    }
+
+    /**
+     * 分页查询接口下的记录
+     */
+    @ReadOperation
+    public Map<String, Object> records(@Selector String prjName, @Selector String interfaceName, @Nullable Long from, @Nullable Long to, @Nullable Long offset, @Nullable Long limit) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", idempotentRecordService.count(prjName, interfaceName, toDate(from), toDate(to)));
+        result.put("records", idempotentRecordService.list(prjName, interfaceName, toDate(from), toDate(to), offset == null ? 0L : offset, limit == null ? DEFAULT_LIMIT : limit));
+        return result;
+    }
+
+    /**
+     * 查询指定签名的记录
+     */
+    @ReadOperation
+    public IdempotentRequest record(@Selector String prjName, @Selector String interfaceName, @Selector String sign) {
+        return idempotentRecordService.inspect(prjName, sign);
+    }
+
+    /**
+     * 批量失效项目下所有接口的记录
+     */
+    @DeleteOperation
+    public Map<String, Long> invalidatePrj(@Selector String prjName, @Nullable Long from, @Nullable Long to) {
+        return invalidated(idempotentRecordService.invalidate(prjName, null, toDate(from), toDate(to)));
+    }
+
+    /**
+     * 批量失效接口下的记录
+     */
+    @DeleteOperation
+    public Map<String, Long> invalidateInterface(@Selector String prjName, @Selector String interfaceName, @Nullable Long from, @Nullable Long to) {
+        return invalidated(idempotentRecordService.invalidate(prjName, interfaceName, toDate(from), toDate(to)));
+    }
+
+    private Map<String, Long> invalidated(long count) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("invalidated", count);
+        return result;
+    }
+
+    private Date toDate(Long millis) {
+        return millis == null ? null : new Date(millis);
+    }
+}
@@ -42,4 +42,29 @@ public @interface Idempotent {
      * 响应策略（0-返回上次的请求结果（默认）；1-重复请求提醒）
      */
     int responseStrategy() default 0;
+
+    /**
+     * 幂等记录是否和业务在同一个事务中提交（需要启用数据库存储，幂等记录的新增/更新加入调用方的spring事务，redis在事务提交后才更新）
+     */
+    boolean bindTransaction() default false;
+
+    /**
+     * 需要缓存为终态失败的异常类型（如参数校验异常；在failureCacheSeconds内的重复请求不再调用业务方法，直接抛出上次的异常）
+     */
+    Class<? extends Throwable>[] cacheFailureFor() default {};
+
+    /**
+     * 视为临时失败、允许重试的异常类型（优先于cacheFailureFor判断，用于排除cacheFailureFor中的子类；没有匹配cacheFailureFor的异常也按临时失败处理）
+     */
+    Class<? extends Throwable>[] retryFailureFor() default {};
+
+    /**
+     * 终态失败的缓存时间（单位秒，默认60）
+     */
+    int failureCacheSeconds() default 60;
+
+    /**
+     * 临时失败后的退避时间（单位秒，默认0-不退避；退避期内的重复请求直接提醒稍后重试）
+     */
+    int retryBackoffSeconds() default 0;
 }
\ No newline at end of file
@@ -0,0 +1,48 @@
+package com.andy.idempotent.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import com.andy.idempotent.service.IdempotentConsumerService;
+
+/**
+ * 消息消费幂等注解（用于kafka/rabbitmq等消息监听方法，按消息ID对重复投递去重）
+ * 监听方法的消息参数可以是单条消息，也可以是一批消息（Collection），批量时整批只做一次去重查询，处理完后一次性记录消费结果
+ * @author andy
+ *
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface IdempotentConsumer {
+    /**
+     * 服务名称（默认取spring.application.name定义的名称）
+     */
+    String prjName() default "";
+
+    /**
+     * 消费者名称（默认取'类名:方法名'）
+     */
+    String consumerName() default "";
+
+    /**
+     * 消息ID表达式（SpEL，以单条消息为根对象，如："messageId"、"headers['id']"、"key()"）
+     */
+    String messageId();
+
+    /**
+     * 消息参数名称（默认取第一个参数）
+     */
+    String messageParam() default "";
+
+    /**
+     * 幂等有效期时间（单位分钟，默认1440；存储在redis时必须大于0）
+     */
+    int idempotentMinutes() default 1440;
+
+    /**
+     * 消费记录存储方式（0-redis（默认）；1-数据库，和业务写库在同一个事务中提交，不访问redis）
+     */
+    int storage() default IdempotentConsumerService.STORAGE_REDIS;
+}
@@ -0,0 +1,174 @@
+package com.andy.idempotent.annotation;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.andy.idempotent.model.IdempotentConsumerClaim;
+import com.andy.idempotent.service.IdempotentConsumerService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 消息消费幂等拦截：先整批认领还没有消费过的消息，只把认领到的消息交给监听方法，处理成功后记录消费结果，失败时释放认领
+ * @author andy
+ *
+ */
+@Aspect
+@Component
+@Order(-1)
+@Slf4j
+public class IdempotentConsumerInterceptor {
+
+    @Autowired
+    private IdempotentConsumerService idempotentConsumerService;
+
+    @Autowired(required = false)
+    private PlatformTransactionManager transactionManager;
+
+    // 默认项目名称
+    @Value("${spring.application.name:}")
+    public String defaultPrjName;
+
+    // 幂等组件专用数据源（配置了时消费记录不能和业务在同一个事务中提交）
+    @Value("${idempotent.datasource.url:}")
+    private String dedicatedDataSourceUrl;
+
+    private final ExpressionParser expressionParser = new SpelExpressionParser();
+
+    // 消息ID表达式缓存
+    private final Map<String, Expression> messageIdExpressions = new ConcurrentHashMap<>();
+
+    @Around("@annotation(idempotentConsumer)")
+    public Object proceed(ProceedingJoinPoint joinPoint, IdempotentConsumer idempotentConsumer) throws Throwable {
+        MethodSignature methodSignature = (MethodSignature) joinPoint.getSignature();
+        String prjName = StringUtils.isBlank(idempotentConsumer.prjName()) ? defaultPrjName : idempotentConsumer.prjName();
+        String consumerName = StringUtils.isBlank(idempotentConsumer.consumerName()) ? getMethodName(methodSignature) : idempotentConsumer.consumerName();
+        int storage = idempotentConsumer.storage();
+        Object[] args = joinPoint.getArgs();
+        int messageIndex = getMessageParamIndex(methodSignature.getParameterNames(), idempotentConsumer.messageParam());
+        Expression expression = messageIdExpressions.computeIfAbsent(idempotentConsumer.messageId(), expressionParser::parseExpression);
+        Function<Object, String> messageIdExtractor = message -> getMessageId(expression, message);
+
+        Object messageArg = args[messageIndex];
+        boolean batch = messageArg instanceof Collection;
+        List<Object> messages = batch ? new ArrayList<>((Collection<?>) messageArg) : Collections.singletonList(messageArg);
+        int idempotentMinutes = idempotentConsumer.idempotentMinutes();
+
+        if (storage == IdempotentConsumerService.STORAGE_DB) {
+            if (transactionManager == null || StringUtils.isNotBlank(dedicatedDataSourceUrl))
+                throw new IllegalArgumentException("idempotent consumer storage=1 requires a PlatformTransactionManager and no idempotent.datasource, consumer=" + consumerName);
+            // 认领记录和业务写库在同一个事务中提交（监听方法上的@Transactional会加入这个事务），业务回滚时认领一起回滚
+            try {
+                return new TransactionTemplate(transactionManager).execute(status -> {
+                    IdempotentConsumerClaim<Object> claim = idempotentConsumerService.claim(prjName, consumerName, storage, messages, messageIdExtractor, idempotentMinutes);
+                    if (claim.isEmpty()) {
+                        log.info("####### all messages have been consumed before, skip consumer {}:{}", prjName, consumerName);
+                        return null;
+                    }
+                    try {
+                        Object result = joinPoint.proceed(toArgs(args, messageIndex, batch, claim, messageArg));
+                        idempotentConsumerService.markProcessed(claim);
+                        return result;
+                    } catch (RuntimeException | Error e) {
+                        throw e;
+                    } catch (Throwable e) {
+                        throw new UndeclaredThrowableException(e);
+                    }
+                });
+            } catch (UndeclaredThrowableException e) {
+                throw e.getUndeclaredThrowable();
+            }
+        }
+
+        IdempotentConsumerClaim<Object> claim = idempotentConsumerService.claim(prjName, consumerName, storage, messages, messageIdExtractor, idempotentMinutes);
+        if (claim.isEmpty()) {
+            log.info("####### all messages have been consumed before, skip consumer {}:{}", prjName, consumerName);
+            return null;
+        }
+        Object result;
+        try {
+            result = joinPoint.proceed(toArgs(args, messageIndex, batch, claim, messageArg));
+        } catch (Throwable e) {
+            // 处理失败，释放认领，重新投递的消息可以再次处理
+            idempotentConsumerService.release(claim);
+            throw e;
+        }
+        idempotentConsumerService.markProcessed(claim);
+        return result;
+    }
+
+    /**
+     * 只把认领到的消息交给监听方法
+     */
+    private Object[] toArgs(Object[] args, int messageIndex, boolean batch, IdempotentConsumerClaim<Object> claim, Object originalArg) {
+        if (batch)
+            args[messageIndex] = toMessageArg(claim.getMessages(), originalArg);
+        return args;
+    }
+
+    /**
+     * 获取消息ID
+     */
+    private String getMessageId(Expression expression, Object message) {
+        Object messageId = expression.getValue(message);
+        if (messageId == null)
+            throw new IllegalArgumentException("message id can not be null, check idempotent consumer configuration, expression=" + expression.getExpressionString());
+        return messageId.toString();
+    }
+
+    /**
+     * 获取消息参数的位置
+     */
+    private int getMessageParamIndex(String[] paramNames, String messageParam) {
+        if (StringUtils.isBlank(messageParam))
+            return 0;
+        int index = ArrayUtils.indexOf(paramNames, messageParam);
+        if (index < 0)
+            throw new IllegalArgumentException("message parameter '" + messageParam + "' not found, check idempotent consumer configuration");
+        return index;
+    }
+
+    /**
+     * 按原参数的集合类型重新组装过滤后的消息
+     */
+    private Collection<Object> toMessageArg(List<Object> messages, Object originalArg) {
+        if (originalArg instanceof Set)
+            return new LinkedHashSet<>(messages);
+        return messages;
+    }
+
+    /**
+     * 获取消费方法名
+     */
+    private String getMethodName(MethodSignature methodSignature) {
+        String className = methodSignature.getDeclaringTypeName();
+        if (className.indexOf(".") > -1)
+            className = className.substring(className.lastIndexOf(".") + 1);
+        return String.format("%s:%s", className, methodSignature.getName());
+    }
+
+}
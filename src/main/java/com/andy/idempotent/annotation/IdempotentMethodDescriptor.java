@@ -0,0 +1,232 @@
+package com.andy.idempotent.annotation;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.fastjson.JSON;
+import com.andy.idempotent.model.IdempotentContext;
+
+/**
+ * 启动时预先解析好的幂等方法描述（注解属性、默认名称、幂等字段取值方法、返回值类型），创建后不再修改
+ * @author andy
+ *
+ */
+public class IdempotentMethodDescriptor {
+
+    public static final Logger log = LoggerFactory.getLogger(IdempotentMethodDescriptor.class);
+
+    private final String prjName;
+    private final String interfaceName;
+    private final int idempotentMinutes;
+    private final int responseStrategy;
+    private final boolean idempotentParamOnly;
+    private final boolean bindTransaction;
+    private final List<Class<? extends Throwable>> cacheFailureFor;
+    private final List<Class<? extends Throwable>> retryFailureFor;
+    private final int failureCacheSeconds;
+    private final int retryBackoffSeconds;
+    // 所有参数名称
+    private final String[] paramNames;
+    // 幂等字段的取值方法（为空时取所有参数）
+    private final List<ParamExtractor> extractors;
+    // 返回值类型（含泛型，重复请求时按这个类型还原上次的结果）
+    private final Type resultType;
+
+    public IdempotentMethodDescriptor(Method method, String[] paramNames, Idempotent idempotent, String defaultPrjName) {
+        this.prjName = StringUtils.isBlank(idempotent.prjName()) ? defaultPrjName : idempotent.prjName();
+        if (StringUtils.isBlank(this.prjName))
+            throw new IllegalStateException(String.format("prjName of idempotent method %s is blank, set prjName or spring.application.name", method));
+        this.interfaceName = StringUtils.isBlank(idempotent.interfaceName()) ? getMethodName(method) : idempotent.interfaceName();
+        this.idempotentMinutes = idempotent.idempotentMinutes();
+        this.responseStrategy = idempotent.responseStrategy();
+        this.idempotentParamOnly = idempotent.idempotentParamOnly();
+        this.bindTransaction = idempotent.bindTransaction();
+        this.cacheFailureFor = Collections.unmodifiableList(Arrays.asList(idempotent.cacheFailureFor()));
+        this.retryFailureFor = Collections.unmodifiableList(Arrays.asList(idempotent.retryFailureFor()));
+        this.failureCacheSeconds = idempotent.failureCacheSeconds();
+        this.retryBackoffSeconds = idempotent.retryBackoffSeconds();
+        this.paramNames = paramNames == null ? new String[0] : paramNames;
+        this.extractors = compileExtractors(method, this.paramNames, idempotent.idempotentColumns());
+        this.resultType = method.getGenericReturnType();
+    }
+
+    /**
+     * 根据本次调用的参数生成幂等上下文
+     */
+    public IdempotentContext newContext(Object[] args) {
+        IdempotentContext context = new IdempotentContext();
+        context.setPrjName(prjName);
+        context.setInterfaceName(interfaceName);
+        context.setIdempotentMinutes(idempotentMinutes);
+        context.setResponseStrategy(responseStrategy);
+        context.setBindTransaction(bindTransaction);
+        context.setCacheFailureFor(cacheFailureFor);
+        context.setRetryFailureFor(retryFailureFor);
+        context.setFailureCacheSeconds(failureCacheSeconds);
+        context.setRetryBackoffSeconds(retryBackoffSeconds);
+        Map<String, Object> idempotentParamMap;
+        if (extractors.isEmpty()) {
+            idempotentParamMap = generateAllParamJson(args);
+        } else {
+            idempotentParamMap = new TreeMap<>();
+            for (ParamExtractor extractor : extractors)
+                idempotentParamMap.put(extractor.column, extractor.extract(args));
+        }
+        // 决定交易唯一性的字段值串
+        context.setBizColumnValues(JSON.toJSONString(idempotentParamMap));
+        // 请求参数
+        if (idempotentParamOnly || extractors.isEmpty())
+            context.setRequestParam(idempotentParamMap);
+        else
+            context.setRequestParam(generateAllParamJson(args));
+        return context;
+    }
+
+    public Type getResultType() {
+        return resultType;
+    }
+
+    public String getPrjName() {
+        return prjName;
+    }
+
+    public String getInterfaceName() {
+        return interfaceName;
+    }
+
+    /**
+     * 获取所有的参数信息
+     */
+    private Map<String, Object> generateAllParamJson(Object[] args) {
+        Map<String, Object> idempotentParamMap = new TreeMap<>();
+        for (int i = 0; i < paramNames.length; i++) {
+            idempotentParamMap.put(paramNames[i], args[i]);
+        }
+        return idempotentParamMap;
+    }
+
+    /**
+     * 解析幂等字段的取值方法，配置错误时直接抛出，让应用启动失败
+     */
+    private static List<ParamExtractor> compileExtractors(Method method, String[] paramNames, String[] idempotentColumns) {
+        List<ParamExtractor> extractors = new ArrayList<>();
+        if (idempotentColumns == null)
+            return extractors;
+        for (String idempotentColumn : idempotentColumns) {
+            if (StringUtils.isBlank(idempotentColumn))
+                continue;
+            String[] parts = idempotentColumn.split("\\.");
+            int argIndex = ArrayUtils.indexOf(paramNames, parts[0]);
+            if (argIndex < 0)
+                throw new IllegalStateException(String.format("idempotent column '%s' of method %s: parameter '%s' not found", idempotentColumn, method, parts[0]));
+            String[] fieldNames = Arrays.copyOfRange(parts, 1, parts.length);
+            Method[] getters = new Method[fieldNames.length];
+            Class<?> type = method.getParameterTypes()[argIndex];
+            for (int i = 0; i < fieldNames.length; i++) {
+                if (StringUtils.isBlank(fieldNames[i]))
+                    throw new IllegalStateException(String.format("idempotent column '%s' of method %s: blank field name", idempotentColumn, method));
+                getters[i] = findGetter(type, fieldNames[i]);
+                if (getters[i] == null) {
+                    // 具体类型上没有get方法是配置错误；声明为接口、抽象类或Object时，调用时按实际参数的类型查找
+                    if (!type.isInterface() && !Modifier.isAbstract(type.getModifiers()) && type != Object.class)
+                        throw new IllegalStateException(String.format("idempotent column '%s' of method %s: no getter for '%s' in %s", idempotentColumn, method, fieldNames[i], type.getName()));
+                    log.warn("####### idempotent column '{}' of method {}: no getter for '{}' in {}, resolve by the runtime type of the argument", idempotentColumn, method, fieldNames[i], type.getName());
+                    break;
+                }
+                type = getters[i].getReturnType();
+            }
+            extractors.add(new ParamExtractor(idempotentColumn, argIndex, fieldNames, getters));
+        }
+        return extractors;
+    }
+
+    /**
+     * 查找属性的get方法（boolean类型的属性同时支持is方法）
+     */
+    private static Method findGetter(Class<?> type, String fieldName) {
+        if (StringUtils.isBlank(fieldName))
+            return null;
+        String suffix = StringUtils.capitalize(fieldName);
+        for (String prefix : new String[] { "get", "is" }) {
+            try {
+                Method getter = type.getMethod(prefix + suffix);
+                if (getter.getParameterCount() == 0 && getter.getReturnType() != void.class
+                        && ("get".equals(prefix) || getter.getReturnType() == boolean.class || getter.getReturnType() == Boolean.class)) {
+                    getter.setAccessible(true);
+                    return getter;
+                }
+            } catch (NoSuchMethodException e) {
+                // 继续尝试下一个前缀
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取业务方法名
+     */
+    private static String getMethodName(Method method) {
+        String className = method.getDeclaringClass().getName();
+        if (className.indexOf(".") > -1)
+            className = className.substring(className.lastIndexOf(".") + 1);
+        return String.format("%s:%s", className, method.getName());
+    }
+
+    /**
+     * 幂等字段的取值方法
+     */
+    private static class ParamExtractor {
+
+        private final String column;
+        private final int argIndex;
+        private final String[] fieldNames;
+        // 启动时按声明类型解析出的get方法（为null的以及之后的按实际类型解析）
+        private final Method[] getters;
+        // 按实际类型解析的get方法缓存：类型 -> 属性名 -> get方法
+        private final Map<Class<?>, Map<String, Method>> runtimeGetters = new ConcurrentHashMap<>();
+
+        ParamExtractor(String column, int argIndex, String[] fieldNames, Method[] getters) {
+            this.column = column;
+            this.argIndex = argIndex;
+            this.fieldNames = fieldNames;
+            this.getters = getters;
+        }
+
+        Object extract(Object[] args) {
+            Object value = args[argIndex];
+            try {
+                for (int i = 0; i < fieldNames.length; i++) {
+                    if (value == null)
+                        return null;
+                    Method getter = getters[i] != null ? getters[i] : getRuntimeGetter(value.getClass(), fieldNames[i]);
+                    value = getter.invoke(value);
+                }
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(String.format("Parameters cannot be obtained. Check idempotent column '%s'", column), e);
+            }
+            return value;
+        }
+
+        private Method getRuntimeGetter(Class<?> type, String fieldName) throws NoSuchMethodException {
+            Method getter = runtimeGetters.computeIfAbsent(type, t -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(fieldName, f -> findGetter(type, f));
+            if (getter == null)
+                throw new NoSuchMethodException(String.format("no getter for '%s' in %s", fieldName, type.getName()));
+            return getter;
+        }
+    }
+}
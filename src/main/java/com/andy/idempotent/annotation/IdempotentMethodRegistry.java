@@ -0,0 +1,141 @@
+package com.andy.idempotent.annotation;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.core.env.Environment;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.ParseException;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.ReflectionUtils;
+
+import com.andy.idempotent.service.IdempotentConsumerService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 幂等方法注册表：启动时扫描所有bean上的@Idempotent方法，预先解析成IdempotentMethodDescriptor；同时校验@IdempotentConsumer方法的配置，配置错误时启动失败
+ * @author andy
+ *
+ */
+@Component
+@Slf4j
+public class IdempotentMethodRegistry implements BeanPostProcessor, EnvironmentAware, BeanFactoryAware {
+
+    private final Map<Method, IdempotentMethodDescriptor> descriptors = new ConcurrentHashMap<>();
+
+    private final ParameterNameDiscoverer parameterNameDiscoverer = new DefaultParameterNameDiscoverer();
+
+    private final ExpressionParser expressionParser = new SpelExpressionParser();
+
+    // 默认项目名称
+    private String defaultPrjName;
+
+    // 幂等组件专用数据源
+    private String dedicatedDataSourceUrl;
+
+    // 是否启用数据库存储
+    private boolean dbEnabled;
+
+    private BeanFactory beanFactory;
+
+    @Override
+    public void setEnvironment(Environment environment) {
+        this.defaultPrjName = environment.getProperty("spring.application.name", "");
+        this.dedicatedDataSourceUrl = environment.getProperty("idempotent.datasource.url", "");
+        this.dbEnabled = environment.getProperty("idempontent.db-enabled", Boolean.class, false);
+    }
+
+    @Override
+    public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+        this.beanFactory = beanFactory;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+        Class<?> targetClass = AopUtils.getTargetClass(bean);
+        ReflectionUtils.doWithMethods(targetClass, method -> {
+            Idempotent idempotent = method.getAnnotation(Idempotent.class);
+            descriptors.computeIfAbsent(method, m -> resolve(m, idempotent));
+        }, method -> !method.isBridge() && method.isAnnotationPresent(Idempotent.class));
+        ReflectionUtils.doWithMethods(targetClass, method -> validateConsumer(method, method.getAnnotation(IdempotentConsumer.class)),
+                method -> !method.isBridge() && method.isAnnotationPresent(IdempotentConsumer.class));
+        return bean;
+    }
+
+    /**
+     * 获取当前调用方法的描述（没有在启动时注册的，比如jdk代理拿到的接口方法，按实际的目标方法解析一次后缓存）
+     */
+    public IdempotentMethodDescriptor getDescriptor(ProceedingJoinPoint joinPoint, Idempotent idempotent) {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        IdempotentMethodDescriptor descriptor = descriptors.get(method);
+        if (descriptor != null)
+            return descriptor;
+        Method targetMethod = joinPoint.getTarget() == null ? method : AopUtils.getMostSpecificMethod(method, AopUtils.getTargetClass(joinPoint.getTarget()));
+        descriptor = descriptors.computeIfAbsent(targetMethod, m -> resolve(m, idempotent));
+        descriptors.putIfAbsent(method, descriptor);
+        return descriptor;
+    }
+
+    /**
+     * 启动时校验@IdempotentConsumer的配置，配置错误时启动失败，不等到第一条消息进来才发现
+     */
+    private void validateConsumer(Method method, IdempotentConsumer idempotentConsumer) {
+        int storage = idempotentConsumer.storage();
+        if (storage != IdempotentConsumerService.STORAGE_REDIS && storage != IdempotentConsumerService.STORAGE_DB)
+            throw new IllegalArgumentException("idempotent consumer storage must be 0(redis) or 1(db), method=" + method);
+        if (storage == IdempotentConsumerService.STORAGE_REDIS && idempotentConsumer.idempotentMinutes() <= 0)
+            throw new IllegalArgumentException("idempotentMinutes must be greater than 0 when consumer records are stored in redis, method=" + method);
+        // 消费记录写在专用数据源中时，不能和业务写库在同一个事务中提交
+        if (storage == IdempotentConsumerService.STORAGE_DB && StringUtils.isNotBlank(dedicatedDataSourceUrl))
+            throw new IllegalArgumentException("idempotent consumer storage=1 can not be used with idempotent.datasource, method=" + method);
+        if (method.getParameterCount() == 0)
+            throw new IllegalArgumentException("idempotent consumer method must have a message parameter, method=" + method);
+        if (StringUtils.isNotBlank(idempotentConsumer.messageParam()) && !ArrayUtils.contains(parameterNameDiscoverer.getParameterNames(method), idempotentConsumer.messageParam()))
+            throw new IllegalArgumentException("message parameter '" + idempotentConsumer.messageParam() + "' not found, method=" + method);
+        try {
+            expressionParser.parseExpression(idempotentConsumer.messageId());
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("invalid idempotent consumer messageId expression '" + idempotentConsumer.messageId() + "', method=" + method, e);
+        }
+        log.info("####### register idempotent consumer {}, storage={}", method, storage);
+    }
+
+    /**
+     * 启动时校验bindTransaction的前提：启用数据库存储、有PlatformTransactionManager、没有配置专用数据源
+     */
+    private void validateBindTransaction(Method method) {
+        if (!dbEnabled)
+            throw new IllegalArgumentException("bindTransaction requires idempontent.db-enabled=true, method=" + method);
+        if (StringUtils.isNotBlank(dedicatedDataSourceUrl))
+            throw new IllegalArgumentException("bindTransaction can not be used with idempotent.datasource, method=" + method);
+        // 只看bean定义，不提前初始化事务管理器
+        if (!(beanFactory instanceof ListableBeanFactory)
+                || ((ListableBeanFactory) beanFactory).getBeanNamesForType(PlatformTransactionManager.class, true, false).length == 0)
+            throw new IllegalArgumentException("bindTransaction requires a PlatformTransactionManager bean, method=" + method);
+    }
+
+    private IdempotentMethodDescriptor resolve(Method method, Idempotent idempotent) {
+        if (idempotent.bindTransaction())
+            validateBindTransaction(method);
+        IdempotentMethodDescriptor descriptor = new IdempotentMethodDescriptor(method, parameterNameDiscoverer.getParameterNames(method), idempotent, defaultPrjName);
+        log.info("####### register idempotent method {}, prjName={}, interfaceName={}", method, descriptor.getPrjName(), descriptor.getInterfaceName());
+        return descriptor;
+    }
+}
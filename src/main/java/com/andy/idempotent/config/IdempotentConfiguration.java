@@ -1,23 +1,79 @@
 package com.andy.idempotent.config;
 
-import org.mybatis.spring.annotation.MapperScan;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.spring.mapper.MapperFactoryBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.connection.RedisConnectionFactory;
-import org.springframework.integration.redis.util.RedisLockRegistry;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import com.andy.idempotent.actuate.IdempotentEndpoint;
+import com.andy.idempotent.mapper.IdempotentRequestMapper;
+import com.andy.idempotent.metrics.IdempotentMeterBinder;
+import com.andy.idempotent.service.IdempotentCircuitBreaker;
+import com.andy.idempotent.service.IdempotentHotSignDetector;
+import com.andy.idempotent.service.IdempotentNamespace;
+import com.andy.idempotent.service.IdempotentRecordService;
+import com.andy.idempotent.service.IdempotentRecordSweeper;
 
 @Configuration
-@MapperScan(basePackages = { "com.andy.idempotent.mapper" })
-@ComponentScan(basePackages = { 
+@EnableConfigurationProperties({ IdempotentRedisProperties.class, IdempotentDataSourceProperties.class, IdempotentTenantProperties.class })
+@ComponentScan(basePackages = {
         "com.andy.idempotent.service" ,
         "com.andy.idempotent.annotation"})
 public class IdempotentConfiguration {
 
-    @Bean("idempotentRedisLockRegistry")
-    @ConditionalOnProperty("spring.redis.host")
-    public RedisLockRegistry redisLockRegistry(RedisConnectionFactory redisConnectionFactory) {
-        return new RedisLockRegistry(redisConnectionFactory, "idempotent-lock");
+    @Bean
+    public IdempotentRedisHolder idempotentRedisHolder(IdempotentRedisProperties properties, @Qualifier("stringRedisTemplate") ObjectProvider<StringRedisTemplate> stringRedisTemplateProvider) {
+        if (StringUtils.isNotBlank(properties.getHost()))
+            return IdempotentRedisHolder.dedicated(properties);
+        return new IdempotentRedisHolder(stringRedisTemplateProvider.getObject(), false);
+    }
+
+    @Bean
+    public IdempotentDataSourceHolder idempotentDataSourceHolder(IdempotentDataSourceProperties properties, ObjectProvider<SqlSessionFactory> sqlSessionFactoryProvider) throws Exception {
+        if (StringUtils.isNotBlank(properties.getUrl()))
+            return IdempotentDataSourceHolder.dedicated(properties);
+        return new IdempotentDataSourceHolder(sqlSessionFactoryProvider.getObject(), null);
+    }
+
+    @Bean("idempotentRequestMapper")
+    public MapperFactoryBean<IdempotentRequestMapper> idempotentRequestMapper(IdempotentDataSourceHolder idempotentDataSourceHolder) {
+        MapperFactoryBean<IdempotentRequestMapper> mapperFactoryBean = new MapperFactoryBean<>(IdempotentRequestMapper.class);
+        mapperFactoryBean.setSqlSessionFactory(idempotentDataSourceHolder.getSqlSessionFactory());
+        return mapperFactoryBean;
+    }
+
+    @Bean("idempotentLockRegistry")
+    @ConditionalOnExpression("'${spring.redis.host:}' != '' or '${idempotent.redis.host:}' != ''")
+    public IdempotentLockRegistry idempotentLockRegistry(IdempotentRedisHolder idempotentRedisHolder, @Value("${idempotent.lock.expire-millis:60000}") long expireMillis) {
+        return new IdempotentLockRegistry(idempotentRedisHolder.getConnectionFactory(), expireMillis);
+    }
+
+    @Configuration
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+    static class IdempotentMetricsConfiguration {
+
+        @Bean
+        public IdempotentMeterBinder idempotentMeterBinder(ObjectProvider<IdempotentRecordSweeper> sweeperProvider, ObjectProvider<IdempotentHotSignDetector> hotSignDetectorProvider, IdempotentCircuitBreaker circuitBreaker, IdempotentNamespace idempotentNamespace) {
+            return new IdempotentMeterBinder(sweeperProvider, hotSignDetectorProvider, circuitBreaker, idempotentNamespace);
+        }
+    }
+
+    @Configuration
+    @ConditionalOnClass(name = "org.springframework.boot.actuate.endpoint.annotation.Endpoint")
+    static class IdempotentEndpointConfiguration {
+
+        @Bean
+        public IdempotentEndpoint idempotentEndpoint(IdempotentRecordService idempotentRecordService) {
+            return new IdempotentEndpoint(idempotentRecordService);
+        }
     }
 }
@@ -0,0 +1,69 @@
+package com.andy.idempotent.config;
+
+import java.io.Closeable;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.spring.SqlSessionFactoryBean;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * 幂等记录表使用的SqlSessionFactory（没有配置idempotent.datasource.url时使用业务的默认SqlSessionFactory，否则使用独立的连接池）
+ * 不直接注册成DataSource/SqlSessionFactory类型的bean，避免影响spring-boot对业务数据源的自动配置
+ * @author andy
+ *
+ */
+public class IdempotentDataSourceHolder implements DisposableBean {
+
+    private final SqlSessionFactory sqlSessionFactory;
+
+    // 幂等组件自己创建的数据源（使用业务的SqlSessionFactory时为空）
+    private final DataSource dedicatedDataSource;
+
+    public IdempotentDataSourceHolder(SqlSessionFactory sqlSessionFactory, DataSource dedicatedDataSource) {
+        this.sqlSessionFactory = sqlSessionFactory;
+        this.dedicatedDataSource = dedicatedDataSource;
+    }
+
+    /**
+     * 按配置创建独立的hikari连接池和SqlSessionFactory
+     */
+    public static IdempotentDataSourceHolder dedicated(IdempotentDataSourceProperties properties) throws Exception {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setPoolName("idempotent-pool");
+        dataSource.setJdbcUrl(properties.getUrl());
+        dataSource.setUsername(properties.getUsername());
+        dataSource.setPassword(properties.getPassword());
+        if (properties.getDriverClassName() != null)
+            dataSource.setDriverClassName(properties.getDriverClassName());
+        dataSource.setMaximumPoolSize(properties.getMaximumPoolSize());
+        dataSource.setMinimumIdle(properties.getMinimumIdle());
+        dataSource.setConnectionTimeout(properties.getConnectionTimeout());
+        org.apache.ibatis.session.Configuration configuration = new org.apache.ibatis.session.Configuration();
+        // 幂等记录表的字段是下划线分隔的，不依赖业务的mybatis配置
+        configuration.setMapUnderscoreToCamelCase(true);
+        configuration.setDefaultStatementTimeout(properties.getStatementTimeout());
+        SqlSessionFactoryBean factoryBean = new SqlSessionFactoryBean();
+        factoryBean.setDataSource(dataSource);
+        factoryBean.setConfiguration(configuration);
+        return new IdempotentDataSourceHolder(factoryBean.getObject(), dataSource);
+    }
+
+    public SqlSessionFactory getSqlSessionFactory() {
+        return sqlSessionFactory;
+    }
+
+    public boolean isDedicated() {
+        return dedicatedDataSource != null;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        // 只关闭自己创建的连接池
+        if (dedicatedDataSource instanceof Closeable)
+            ((Closeable) dedicatedDataSource).close();
+    }
+}
@@ -0,0 +1,27 @@
+package com.andy.idempotent.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * 幂等组件专用的数据源配置（配置了url时，幂等记录表使用独立的hikari连接池，不和业务共用默认数据源）
+ * @author andy
+ *
+ */
+@Data
+@ConfigurationProperties(prefix = "idempotent.datasource")
+public class IdempotentDataSourceProperties {
+
+    private String url;
+    private String username;
+    private String password;
+    private String driverClassName;
+    // 连接池最大连接数
+    private int maximumPoolSize = 5;
+    private int minimumIdle = 1;
+    // 从连接池获取连接的最长等待时间（毫秒）
+    private long connectionTimeout = 1000;
+    // 单条sql的超时时间（秒）
+    private int statementTimeout = 3;
+}
@@ -0,0 +1,41 @@
+package com.andy.idempotent.config;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.integration.redis.util.RedisLockRegistry;
+
+/**
+ * 幂等锁的注册表：RedisLockRegistry会在锁的key前面加上自己的registryKey，
+ * 所以按redis key前缀分别创建RedisLockRegistry（registryKey为“前缀:idempotent-lock”），让锁的key也以项目的前缀开头
+ * @author andy
+ *
+ */
+public class IdempotentLockRegistry {
+
+    public static final String REGISTRY_KEY = "idempotent-lock";
+
+    private final RedisConnectionFactory connectionFactory;
+
+    // 锁的过期时间（毫秒）
+    private final long expireMillis;
+
+    // redis key前缀 -> 这个前缀下的锁（前缀来自配置，个数有限）
+    private final Map<String, RedisLockRegistry> registries = new ConcurrentHashMap<>();
+
+    public IdempotentLockRegistry(RedisConnectionFactory connectionFactory, long expireMillis) {
+        this.connectionFactory = connectionFactory;
+        this.expireMillis = expireMillis;
+    }
+
+    /**
+     * 获取指定前缀下的锁，redis中的key为“前缀:idempotent-lock:lockKey”（前缀为空时为“idempotent-lock:lockKey”）
+     */
+    public Lock obtain(String keyPrefix, String lockKey) {
+        return registries.computeIfAbsent(StringUtils.defaultString(keyPrefix), prefix -> new RedisLockRegistry(connectionFactory,
+                StringUtils.isEmpty(prefix) ? REGISTRY_KEY : prefix + ":" + REGISTRY_KEY, expireMillis)).obtain(lockKey);
+    }
+}
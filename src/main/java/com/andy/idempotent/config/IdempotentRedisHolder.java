@@ -0,0 +1,83 @@
+package com.andy.idempotent.config;
+
+import java.time.Duration;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettucePoolingClientConfiguration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+/**
+ * 幂等组件使用的redis模板（没有配置idempotent.redis.host时使用业务的stringRedisTemplate，否则使用独立的连接池）
+ * 不直接注册成StringRedisTemplate/RedisConnectionFactory类型的bean，避免影响spring-boot对业务redis的自动配置
+ * @author andy
+ *
+ */
+public class IdempotentRedisHolder implements DisposableBean {
+
+    private final StringRedisTemplate template;
+
+    // 是否是幂等组件自己创建的连接池
+    private final boolean dedicated;
+
+    public IdempotentRedisHolder(StringRedisTemplate template, boolean dedicated) {
+        this.template = template;
+        this.dedicated = dedicated;
+    }
+
+    /**
+     * 按配置创建独立的lettuce连接池
+     */
+    public static IdempotentRedisHolder dedicated(IdempotentRedisProperties properties) {
+        return new IdempotentRedisHolder(new StringRedisTemplate(LettuceFactoryBuilder.build(properties)), true);
+    }
+
+    public StringRedisTemplate getTemplate() {
+        return template;
+    }
+
+    public RedisConnectionFactory getConnectionFactory() {
+        return template.getConnectionFactory();
+    }
+
+    public boolean isDedicated() {
+        return dedicated;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        // 只关闭自己创建的连接池
+        if (dedicated && template.getConnectionFactory() instanceof DisposableBean)
+            ((DisposableBean) template.getConnectionFactory()).destroy();
+    }
+
+    /**
+     * 单独放在内部类中，只有配置了独立连接池时才会加载lettuce和commons-pool2
+     */
+    private static class LettuceFactoryBuilder {
+
+        static RedisConnectionFactory build(IdempotentRedisProperties properties) {
+            RedisStandaloneConfiguration standalone = new RedisStandaloneConfiguration(properties.getHost(), properties.getPort());
+            standalone.setDatabase(properties.getDatabase());
+            if (StringUtils.isNotBlank(properties.getPassword()))
+                standalone.setPassword(RedisPassword.of(properties.getPassword()));
+            GenericObjectPoolConfig poolConfig = new GenericObjectPoolConfig();
+            poolConfig.setMaxTotal(properties.getMaxActive());
+            poolConfig.setMaxIdle(properties.getMaxIdle());
+            poolConfig.setMinIdle(properties.getMinIdle());
+            poolConfig.setMaxWaitMillis(properties.getMaxWait());
+            LettucePoolingClientConfiguration clientConfig = LettucePoolingClientConfiguration.builder()
+                    .commandTimeout(Duration.ofMillis(properties.getTimeout()))
+                    .poolConfig(poolConfig)
+                    .build();
+            LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(standalone, clientConfig);
+            connectionFactory.afterPropertiesSet();
+            return connectionFactory;
+        }
+    }
+}
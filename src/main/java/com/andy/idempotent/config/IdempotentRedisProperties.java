@@ -0,0 +1,28 @@
+package com.andy.idempotent.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * 幂等组件专用的redis连接配置（配置了host时，幂等组件使用独立的lettuce连接池，不和业务共用stringRedisTemplate）
+ * @author andy
+ *
+ */
+@Data
+@ConfigurationProperties(prefix = "idempotent.redis")
+public class IdempotentRedisProperties {
+
+    private String host;
+    private int port = 6379;
+    private String password;
+    private int database = 0;
+    // 单个命令的超时时间（毫秒）
+    private long timeout = 500;
+    // 连接池最大连接数
+    private int maxActive = 16;
+    private int maxIdle = 8;
+    private int minIdle = 1;
+    // 从连接池获取连接的最长等待时间（毫秒）
+    private long maxWait = 200;
+}
@@ -0,0 +1,45 @@
+package com.andy.idempotent.config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+
+/**
+ * 多租户（按项目名称）命名空间及配额配置：redis key前缀、幂等记录表、每秒操作数/新增记录数/写入字节数的上限（0-不限制）
+ * 上面的属性是所有项目的默认值，tenants中单独配置的项目覆盖默认值
+ * @author andy
+ *
+ */
+@Data
+@ConfigurationProperties(prefix = "idempotent.tenant")
+public class IdempotentTenantProperties {
+
+    // redis key前缀（为空时不加前缀）
+    private String keyPrefix = "";
+    // 幂等记录表（可以带schema，如: order_db.idempotent_request；归档表为表名加_archive后缀）
+    private String table = "idempotent_request";
+    // 每秒幂等请求数上限
+    private long maxOpsPerSecond = 0;
+    // 每秒新增幂等记录数上限
+    private long maxRecordsPerSecond = 0;
+    // 每秒写入幂等记录的字节数上限
+    private long maxBytesPerSecond = 0;
+    // 项目名称 -> 单独的配置
+    private Map<String, Tenant> tenants = new LinkedHashMap<>();
+
+    /**
+     * 单个项目的配置（为空的属性取默认值）
+     */
+    @Data
+    public static class Tenant {
+
+        private String keyPrefix;
+        private String table;
+        private Long maxOpsPerSecond;
+        private Long maxRecordsPerSecond;
+        private Long maxBytesPerSecond;
+    }
+}
@@ -9,6 +9,11 @@ public enum CommonErrorEnum {
     NO_HANDLER_ERROR("500002", "The service you requested does not exist."),
     IDEMPOTENT_REQUEST_EXIST("500003", "Please do not repeat the request."),
     SAVE_IDEMPONTENT_REQUEST_FAIL("500004", "Save idempontent request fail."),
+    IDEMPOTENT_REQUEST_FAILED("500005", "The same request failed before, please check the request."),
+    IDEMPOTENT_REQUEST_BACKOFF("500006", "The same request failed just now, please retry later."),
+    IDEMPOTENT_LOCK_TIMEOUT("500007", "The same request is being processed, please retry later."),
+    IDEMPOTENT_SERVICE_UNAVAILABLE("500008", "Idempotent service is unavailable, please retry later."),
+    IDEMPOTENT_QUOTA_EXCEEDED("500009", "Idempotent quota of the project is exceeded, please retry later."),
     ;
 
     private String message;
@@ -1,5 +1,9 @@
 package com.andy.idempotent.mapper;
 
+import java.util.Date;
+import java.util.List;
+
+import org.apache.ibatis.annotations.Delete;
 import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Options;
 import org.apache.ibatis.annotations.Param;
@@ -8,45 +12,158 @@ import org.apache.ibatis.annotations.Update;
 
 import com.andy.idempotent.model.IdempotentRequest;
 
+/**
+ * 幂等记录表的访问（表名按项目通过IdempotentNamespace路由，经过校验后直接拼接到sql中）
+ * @author andy
+ *
+ */
 public interface IdempotentRequestMapper {
     
     @Insert({
-        "insert into idempotent_request(prj_name, interface_name, request_param, response, biz_column_values, sign, status, valid_end_time, create_time, update_time)",
+        "insert into ${table}(prj_name, interface_name, request_param, response, biz_column_values, sign, status, valid_end_time, create_time, update_time)",
         "values(",
-        "#{prjName},",
-        "#{interfaceName},",
-        "#{requestParam,typeHandler=com.andy.idempotent.mybatis.JsonTypeHandler},",
-        "#{response},",
-        "#{bizColumnValues},",
-        "#{sign},",
-        "#{status},",
-        "#{validEndTime},",
+        "#{request.prjName},",
+        "#{request.interfaceName},",
+        "#{request.requestParam,typeHandler=com.andy.idempotent.mybatis.JsonTypeHandler},",
+        "#{request.response},",
+        "#{request.bizColumnValues},",
+        "#{request.sign},",
+        "#{request.status},",
+        "#{request.validEndTime},",
         "now(),now()",
         ")"
     })
-    @Options(useGeneratedKeys=true, keyProperty="id")
-    public Integer insert(IdempotentRequest idempotentRequest);
+    @Options(useGeneratedKeys=true, keyProperty="request.id")
+    public Integer insert(@Param("table") String table, @Param("request") IdempotentRequest idempotentRequest);
 
     @Select({
         "select id,status,response,valid_end_time",
-        "from idempotent_request",
+        "from ${table}",
         "where sign=#{sign}",
         "order by id desc limit 1"
     })
-    public IdempotentRequest getRequestBefore(@Param("sign") String sign);
+    public IdempotentRequest getRequestBefore(@Param("table") String table, @Param("sign") String sign);
 
     @Update({
-        "update idempotent_request",
+        "update ${table}",
         "set status = #{newStatus}, update_time=now()",
         "where id=#{id} and status=#{oldStatus}"
     })
-    public Integer updateStatusByPrimaryKey(@Param("id")Long id, @Param("oldStatus") Integer oldStatus, @Param("newStatus")Integer newStatus);
+    public Integer updateStatusByPrimaryKey(@Param("table") String table, @Param("id")Long id, @Param("oldStatus") Integer oldStatus, @Param("newStatus")Integer newStatus);
 
     @Update({
-        "update idempotent_request",
+        "update ${table}",
         "set status = #{newStatus}, response=#{response}, update_time=now()",
         "where id=#{id} and status=#{oldStatus}"
     })
-    public Integer updateRequestResult(@Param("id")Long id, @Param("oldStatus") Integer oldStatus, @Param("newStatus")Integer newStatus, @Param("response")String response);
-    
+    public Integer updateRequestResult(@Param("table") String table, @Param("id")Long id, @Param("oldStatus") Integer oldStatus, @Param("newStatus")Integer newStatus, @Param("response")String response);
+
+    /**
+     * 按valid_end_time+id做keyset分页，查询已过期的幂等记录（走idx_valid_end_time索引）
+     */
+    @Select({
+        "select id,status,valid_end_time",
+        "from ${table}",
+        "where valid_end_time < #{now}",
+        "and (valid_end_time > #{lastValidEndTime} or (valid_end_time = #{lastValidEndTime} and id > #{lastId}))",
+        "order by valid_end_time, id limit #{limit}"
+    })
+    public List<IdempotentRequest> listExpiredRequests(@Param("table") String table, @Param("now") Date now, @Param("lastValidEndTime") Date lastValidEndTime, @Param("lastId") Long lastId, @Param("limit") Integer limit);
+
+    /**
+     * 按主键做keyset分页，顺序读取一批记录（用于清理长期停留在新建/失败状态的记录）
+     */
+    @Select({
+        "select id,status,create_time",
+        "from ${table}",
+        "where id > #{lastId}",
+        "order by id limit #{limit}"
+    })
+    public List<IdempotentRequest> listRequestsAfter(@Param("table") String table, @Param("lastId") Long lastId, @Param("limit") Integer limit);
+
+    @Insert({
+        "<script>",
+        "insert into ${table}_archive(id, prj_name, interface_name, request_param, response, biz_column_values, sign, status, valid_end_time, create_time, update_time)",
+        "select id, prj_name, interface_name, request_param, response, biz_column_values, sign, status, valid_end_time, create_time, update_time",
+        "from ${table}",
+        "where id in <foreach collection='ids' item='id' open='(' separator=',' close=')'>#{id}</foreach>",
+        "</script>"
+    })
+    public Integer archiveByIds(@Param("table") String table, @Param("ids") List<Long> ids);
+
+    @Delete({
+        "<script>",
+        "delete from ${table}",
+        "where id in <foreach collection='ids' item='id' open='(' separator=',' close=')'>#{id}</foreach>",
+        "</script>"
+    })
+    public Integer deleteByIds(@Param("table") String table, @Param("ids") List<Long> ids);
+
+    /**
+     * 批量插入消息消费记录（consumer_sign有唯一索引，处理消息前先插入用来认领消息，和业务写库在同一个事务中提交）
+     */
+    @Insert({
+        "<script>",
+        "insert into ${table}(prj_name, interface_name, biz_column_values, sign, consumer_sign, status, valid_end_time, create_time, update_time)",
+        "values",
+        "<foreach collection='requests' item='r' separator=','>",
+        "(#{r.prjName}, #{r.interfaceName}, #{r.bizColumnValues}, #{r.sign}, #{r.sign}, #{r.status}, #{r.validEndTime}, now(), now())",
+        "</foreach>",
+        "</script>"
+    })
+    public Integer insertConsumerRecords(@Param("table") String table, @Param("requests") List<IdempotentRequest> requests);
+
+    /**
+     * 让已过期的消息消费记录重新生效（唯一索引冲突时用来认领过期的消息，更新到记录说明认领成功）
+     */
+    @Update({
+        "update ${table}",
+        "set valid_end_time = #{validEndTime}, update_time=now()",
+        "where consumer_sign=#{sign} and valid_end_time <= now()"
+    })
+    public Integer renewConsumerRecord(@Param("table") String table, @Param("sign") String sign, @Param("validEndTime") Date validEndTime);
+
+    /**
+     * 查询指定签名中已经消费且仍在有效期内的签名（走consumer_sign唯一索引）
+     */
+    @Select({
+        "<script>",
+        "select consumer_sign",
+        "from ${table}",
+        "where consumer_sign in <foreach collection='signs' item='sign' open='(' separator=',' close=')'>#{sign}</foreach>",
+        "and (valid_end_time is null or valid_end_time &gt; now())",
+        "</script>"
+    })
+    public List<String> listConsumedSigns(@Param("table") String table, @Param("signs") List<String> signs);
+
+    /**
+     * 按主键做keyset分页，查询接口下仍然有效（包括永久有效）的记录主键，from/to按valid_end_time过滤（运维批量失效幂等记录时使用）
+     */
+    @Select({
+        "<script>",
+        "select id",
+        "from ${table}",
+        "where prj_name = #{prjName} and interface_name = #{interfaceName} and id &gt; #{lastId}",
+        "and (valid_end_time is null or valid_end_time &gt; now())",
+        "<if test='from != null'>and (valid_end_time is null or valid_end_time &gt;= #{from})</if>",
+        "<if test='to != null'>and valid_end_time &lt;= #{to}</if>",
+        "order by id limit #{limit}",
+        "</script>"
+    })
+    public List<Long> listValidIds(@Param("table") String table, @Param("prjName") String prjName, @Param("interfaceName") String interfaceName,
+            @Param("from") Date from, @Param("to") Date to, @Param("lastId") Long lastId, @Param("limit") Integer limit);
+
+    /**
+     * 让指定主键的有效记录立即过期
+     */
+    @Update({
+        "<script>",
+        "update ${table}",
+        "set valid_end_time = now(), update_time=now()",
+        "where id in <foreach collection='ids' item='id' open='(' separator=',' close=')'>#{id}</foreach>",
+        "and (valid_end_time is null or valid_end_time &gt; now())",
+        "</script>"
+    })
+    public Integer expireByIds(@Param("table") String table, @Param("ids") List<Long> ids);
+
 }
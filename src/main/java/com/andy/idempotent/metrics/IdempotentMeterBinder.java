@@ -0,0 +1,74 @@
+package com.andy.idempotent.metrics;
+
+import org.springframework.beans.factory.ObjectProvider;
+
+import com.andy.idempotent.service.IdempotentCircuitBreaker;
+import com.andy.idempotent.service.IdempotentHotSignDetector;
+import com.andy.idempotent.service.IdempotentNamespace;
+import com.andy.idempotent.service.IdempotentRecordSweeper;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * 幂等组件的监控指标（classpath中有micrometer时生效）
+ * @author andy
+ *
+ */
+public class IdempotentMeterBinder implements MeterBinder {
+
+    private final ObjectProvider<IdempotentRecordSweeper> sweeperProvider;
+
+    private final ObjectProvider<IdempotentHotSignDetector> hotSignDetectorProvider;
+
+    private final IdempotentCircuitBreaker circuitBreaker;
+
+    private final IdempotentNamespace idempotentNamespace;
+
+    public IdempotentMeterBinder(ObjectProvider<IdempotentRecordSweeper> sweeperProvider, ObjectProvider<IdempotentHotSignDetector> hotSignDetectorProvider, IdempotentCircuitBreaker circuitBreaker, IdempotentNamespace idempotentNamespace) {
+        this.sweeperProvider = sweeperProvider;
+        this.hotSignDetectorProvider = hotSignDetectorProvider;
+        this.circuitBreaker = circuitBreaker;
+        this.idempotentNamespace = idempotentNamespace;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        IdempotentRecordSweeper sweeper = sweeperProvider.getIfAvailable();
+        if (sweeper != null) {
+            FunctionCounter.builder("idempotent.sweeper.rows", sweeper, IdempotentRecordSweeper::getExpiredRowsSwept)
+                    .tag("type", "expired").description("expired idempotent records swept").register(registry);
+            FunctionCounter.builder("idempotent.sweeper.rows", sweeper, IdempotentRecordSweeper::getStaleRowsSwept)
+                    .tag("type", "stale").description("stale new/fail idempotent records swept").register(registry);
+            Gauge.builder("idempotent.sweeper.lag", sweeper, IdempotentRecordSweeper::getLagMillis)
+                    .baseUnit("milliseconds").description("how long the oldest expired record had been waiting when the last sweep started").register(registry);
+            Gauge.builder("idempotent.sweeper.batch.size", sweeper, IdempotentRecordSweeper::getBatchSize)
+                    .description("current adaptive sweep batch size").register(registry);
+        }
+        IdempotentHotSignDetector hotSignDetector = hotSignDetectorProvider.getIfAvailable();
+        if (hotSignDetector != null) {
+            Gauge.builder("idempotent.hotkey.signs", hotSignDetector, detector -> detector.getHotSigns().size())
+                    .description("hot signs detected in the last window").register(registry);
+            FunctionCounter.builder("idempotent.hotkey.requests", hotSignDetector, IdempotentHotSignDetector::getLocalHits)
+                    .tag("result", "local").description("hot sign requests served from the local cache").register(registry);
+            FunctionCounter.builder("idempotent.hotkey.requests", hotSignDetector, IdempotentHotSignDetector::getRejected)
+                    .tag("result", "rejected").description("hot sign requests rejected without touching redis").register(registry);
+        }
+        Gauge.builder("idempotent.circuit.breaker.open", circuitBreaker, breaker -> breaker.isOpen() ? 1 : 0)
+                .description("1 when the idempotent circuit breaker is open").register(registry);
+        // 单独配置了命名空间/配额的项目的用量
+        idempotentNamespace.getConfiguredTenants().forEach((prjName, tenant) -> {
+            FunctionCounter.builder("idempotent.tenant.ops", tenant, IdempotentNamespace.Tenant::getOps)
+                    .tag("prjName", prjName).description("idempotent requests admitted").register(registry);
+            FunctionCounter.builder("idempotent.tenant.records", tenant, IdempotentNamespace.Tenant::getRecords)
+                    .tag("prjName", prjName).description("idempotent records created").register(registry);
+            FunctionCounter.builder("idempotent.tenant.bytes", tenant, IdempotentNamespace.Tenant::getBytes)
+                    .tag("prjName", prjName).baseUnit("bytes").description("idempotent record bytes written to redis").register(registry);
+            FunctionCounter.builder("idempotent.tenant.rejected", tenant, IdempotentNamespace.Tenant::getRejected)
+                    .tag("prjName", prjName).description("idempotent requests rejected by tenant quota").register(registry);
+        });
+    }
+
+}
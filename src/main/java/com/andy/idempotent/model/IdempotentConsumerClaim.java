@@ -0,0 +1,31 @@
+package com.andy.idempotent.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * 本次认领到的消息（只有认领到的消息才交给监听方法处理）
+ * @author andy
+ *
+ */
+@Data
+public class IdempotentConsumerClaim<M> {
+
+    private String prjName;
+    private String consumerName;
+    // 消费记录存储方式(0-redis；1-数据库)
+    private int storage;
+    private int idempotentMinutes;
+    // 认领标志（redis存储时写入认领key，释放时只删除自己的认领）
+    private String token;
+    // 认领到的消息
+    private List<M> messages = new ArrayList<>();
+    // 认领到的消息签名
+    private List<String> signs = new ArrayList<>();
+
+    public boolean isEmpty() {
+        return messages.isEmpty();
+    }
+}
@@ -1,5 +1,7 @@
 package com.andy.idempotent.model;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -26,6 +28,16 @@ public class IdempotentContext {
     private Map<String, Object> requestParam;
     // 唯一确定一次请求的字段值串
     private String bizColumnValues;
+    // 幂等记录是否和业务在同一个事务中提交
+    private boolean bindTransaction;
+    // 需要缓存为终态失败的异常类型
+    private List<Class<? extends Throwable>> cacheFailureFor = new ArrayList<>();
+    // 视为临时失败、允许重试的异常类型
+    private List<Class<? extends Throwable>> retryFailureFor = new ArrayList<>();
+    // 终态失败的缓存时间（秒）
+    private Integer failureCacheSeconds = 60;
+    // 临时失败后的退避时间（秒，0-不退避）
+    private Integer retryBackoffSeconds = 0;
 
     public String getPrjName() {
         return prjName;
@@ -81,4 +93,51 @@ public class IdempotentContext {
         this.bizColumnValues = bizColumnValues;
     }
 
+    public boolean isBindTransaction() {
+        return bindTransaction;
+    }
+
+    public void setBindTransaction(boolean bindTransaction) {
+        this.bindTransaction = bindTransaction;
+    }
+
+    public List<Class<? extends Throwable>> getCacheFailureFor() {
+        return cacheFailureFor;
+    }
+
+    public void setCacheFailureFor(List<Class<? extends Throwable>> cacheFailureFor) {
+        this.cacheFailureFor = cacheFailureFor;
+    }
+
+    public List<Class<? extends Throwable>> getRetryFailureFor() {
+        return retryFailureFor;
+    }
+
+    public void setRetryFailureFor(List<Class<? extends Throwable>> retryFailureFor) {
+        this.retryFailureFor = retryFailureFor;
+    }
+
+    public Integer getFailureCacheSeconds() {
+        return failureCacheSeconds;
+    }
+
+    public void setFailureCacheSeconds(Integer failureCacheSeconds) {
+        this.failureCacheSeconds = failureCacheSeconds;
+    }
+
+    public Integer getRetryBackoffSeconds() {
+        return retryBackoffSeconds;
+    }
+
+    public void setRetryBackoffSeconds(Integer retryBackoffSeconds) {
+        this.retryBackoffSeconds = retryBackoffSeconds;
+    }
+
+    /**
+     * 是否需要缓存失败结果（配置了终态失败异常类型，或者配置了临时失败的退避时间）
+     */
+    public boolean isFailureCacheEnabled() {
+        return (cacheFailureFor != null && !cacheFailureFor.isEmpty()) || (retryBackoffSeconds != null && retryBackoffSeconds > 0);
+    }
+
 }
@@ -0,0 +1,19 @@
+package com.andy.idempotent.model;
+
+import lombok.Data;
+
+/**
+ * 缓存在redis中的失败结果
+ * @author andy
+ *
+ */
+@Data
+public class IdempotentFailure {
+
+    // 是否终态失败（true-终态失败，重放异常；false-临时失败，退避期内提醒稍后重试）
+    private boolean terminal;
+    // 异常类名
+    private String exceptionClass;
+    // 异常信息（重放时通过异常类的(String)构造方法重建异常）
+    private String message;
+}
@@ -0,0 +1,102 @@
+package com.andy.idempotent.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 幂等组件访问redis/数据库的熔断器
+ * 连续失败次数达到阀值后打开，打开期间按策略直接拒绝请求（FAIL_CLOSED）或者不做幂等直接执行业务（FAIL_OPEN），
+ * 打开时间结束后放行一个试探请求，成功则关闭，失败则重新打开
+ * @author andy
+ *
+ */
+@Component
+public class IdempotentCircuitBreaker {
+
+    public static final Logger log = LoggerFactory.getLogger(IdempotentCircuitBreaker.class);
+
+    // 熔断打开时的处理策略(FAIL_CLOSED-拒绝请求；FAIL_OPEN-不做幂等直接执行业务)
+    public static final String POLICY_FAIL_CLOSED = "FAIL_CLOSED";
+    public static final String POLICY_FAIL_OPEN = "FAIL_OPEN";
+
+    @Value("${idempotent.circuit-breaker.enabled:false}")
+    private boolean enabled;
+
+    // 连续失败多少次后打开熔断
+    @Value("${idempotent.circuit-breaker.failure-threshold:5}")
+    private int failureThreshold;
+
+    // 熔断打开的时间（毫秒）
+    @Value("${idempotent.circuit-breaker.open-millis:10000}")
+    private long openMillis;
+
+    @Value("${idempotent.circuit-breaker.open-policy:FAIL_CLOSED}")
+    private String openPolicy;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    // 熔断打开的时间点（0-关闭）
+    private final AtomicLong openedAt = new AtomicLong();
+
+    // 已经放行的试探请求所在的线程（null-没有试探请求）
+    private final AtomicReference<Thread> trialOwner = new AtomicReference<>();
+
+    /**
+     * 是否允许访问redis/数据库
+     */
+    public boolean allowRequest() {
+        if (!enabled)
+            return true;
+        long opened = openedAt.get();
+        if (opened == 0L)
+            return true;
+        if (System.currentTimeMillis() - opened < openMillis)
+            return false;
+        // 打开时间已过，只放行一个试探请求
+        return trialOwner.compareAndSet(null, Thread.currentThread());
+    }
+
+    public void recordSuccess() {
+        if (!enabled)
+            return;
+        consecutiveFailures.set(0);
+        if (openedAt.getAndSet(0L) != 0L)
+            log.info("####### idempotent circuit breaker closed");
+        trialOwner.set(null);
+    }
+
+    public void recordFailure() {
+        if (!enabled)
+            return;
+        boolean trial = trialOwner.getAndSet(null) != null;
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold || trial) {
+            openedAt.set(System.currentTimeMillis());
+            log.warn("####### idempotent circuit breaker opened for {}ms after {} consecutive failures, policy={}", openMillis, consecutiveFailures.get(), openPolicy);
+        }
+    }
+
+    /**
+     * 释放当前线程持有的试探名额（试探请求没有记录成功或失败就结束时调用，其他线程的试探名额不受影响）
+     */
+    public void releaseTrial() {
+        if (enabled)
+            trialOwner.compareAndSet(Thread.currentThread(), null);
+    }
+
+    public boolean isFailOpen() {
+        return POLICY_FAIL_OPEN.equalsIgnoreCase(openPolicy);
+    }
+
+    /**
+     * 熔断器是否处于打开状态
+     */
+    public boolean isOpen() {
+        return enabled && openedAt.get() != 0L;
+    }
+}
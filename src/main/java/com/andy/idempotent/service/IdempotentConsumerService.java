@@ -0,0 +1,45 @@
+package com.andy.idempotent.service;
+
+import java.util.List;
+import java.util.function.Function;
+
+import com.andy.idempotent.model.IdempotentConsumerClaim;
+
+/**
+ * 消息消费幂等处理的接口
+ * 处理消息前先认领（redis SET NX或者数据库唯一索引），同一条消息同时投递给多个消费者时（如rebalance），只有一个能认领到
+ * @author andy
+ *
+ */
+public interface IdempotentConsumerService {
+
+    // 消费记录存储方式(0-redis；1-数据库)
+    public static final int STORAGE_REDIS = 0;
+    public static final int STORAGE_DB = 1;
+
+    /**
+     * 认领还没有消费过的消息（整批只查询一次，同一批中重复的消息也只保留第一条）
+     * 存储在数据库时必须在事务中调用，认领记录和业务写库一起提交，业务回滚时认领一起回滚；
+     * 存储在redis时，有消息正在被其他消费者处理则释放本次的认领并抛出IdempotentException，由消息中间件稍后重新投递
+     *
+     * @param prjName 项目名称
+     * @param consumerName 消费者名称
+     * @param storage 消费记录存储方式
+     * @param messages 本次拉取的消息
+     * @param messageIdExtractor 获取消息ID的方法
+     * @param idempotentMinutes 幂等有效期（分钟）
+     * @return 本次认领到的消息
+     */
+    public <M> IdempotentConsumerClaim<M> claim(String prjName, String consumerName, int storage, List<M> messages, Function<M, String> messageIdExtractor, int idempotentMinutes);
+
+    /**
+     * 认领的消息处理成功后记录消费结果（redis存储时写入成功记录并删除认领；数据库存储时认领记录就是消费记录，只做配额记账）
+     */
+    public void markProcessed(IdempotentConsumerClaim<?> claim);
+
+    /**
+     * 认领的消息处理失败时释放认领，让重新投递的消息可以再次处理（数据库存储时由事务回滚释放）
+     */
+    public void release(IdempotentConsumerClaim<?> claim);
+
+}
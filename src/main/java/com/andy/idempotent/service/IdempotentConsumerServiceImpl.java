@@ -0,0 +1,284 @@
+package com.andy.idempotent.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.connection.RedisStringCommands.SetOption;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.alibaba.fastjson.JSON;
+import com.andy.idempotent.config.IdempotentRedisHolder;
+import com.andy.idempotent.error.CommonErrorEnum;
+import com.andy.idempotent.error.IdempotentException;
+import com.andy.idempotent.mapper.IdempotentRequestMapper;
+import com.andy.idempotent.model.IdempotentConsumerClaim;
+import com.andy.idempotent.model.IdempotentRequest;
+
+/**
+ * 消息消费幂等处理的实现
+ * @author andy
+ *
+ */
+@Service("idempotentConsumerService")
+public class IdempotentConsumerServiceImpl implements IdempotentConsumerService {
+
+    public static final Logger log = LoggerFactory.getLogger(IdempotentConsumerServiceImpl.class);
+
+    // redis的消息认领key
+    public static final String IDEMPOTENT_CLAIM_REDIS_KEY = "idempotent:claim:sign:%s";
+
+    // 只删除自己的认领（认领过期后可能已经被其他消费者认领）
+    private static final String RELEASE_CLAIM_SCRIPT = "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end";
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    public void setIdempotentRedisHolder(IdempotentRedisHolder idempotentRedisHolder) {
+        this.stringRedisTemplate = idempotentRedisHolder.getTemplate();
+    }
+
+    @Autowired
+    private IdempotentRequestMapper idempotentRequestMapper;
+
+    @Autowired
+    private IdempotentNamespace idempotentNamespace;
+
+    // redis认领的有效期（秒），消费者处理中宕机时，过了这个时间重新投递的消息才能被再次认领
+    @Value("${idempotent.consumer.claim-seconds:300}")
+    private long claimSeconds;
+
+    @Override
+    public <M> IdempotentConsumerClaim<M> claim(String prjName, String consumerName, int storage, List<M> messages, Function<M, String> messageIdExtractor, int idempotentMinutes) {
+        checkNames(prjName, consumerName);
+        if (storage == STORAGE_REDIS && idempotentMinutes <= 0)
+            throw new IllegalArgumentException("idempotentMinutes must be greater than 0 when consumer records are stored in redis");
+        if (storage == STORAGE_DB && !TransactionSynchronizationManager.isActualTransactionActive())
+            throw new IllegalStateException("consumer records stored in db must be claimed in a transaction");
+        IdempotentConsumerClaim<M> claim = new IdempotentConsumerClaim<>();
+        claim.setPrjName(prjName);
+        claim.setConsumerName(consumerName);
+        claim.setStorage(storage);
+        claim.setIdempotentMinutes(idempotentMinutes);
+        if (messages == null || messages.isEmpty())
+            return claim;
+        // 项目的配额用完时整批拒绝，消息由消息中间件重新投递
+        idempotentNamespace.acquireOps(prjName);
+        // 签名 -> 消息，同一批中重复的消息只保留第一条
+        Map<String, M> signMessages = new LinkedHashMap<>();
+        Map<String, String> signMessageIds = new LinkedHashMap<>();
+        for (M message : messages) {
+            String messageId = messageIdExtractor.apply(message);
+            String sign = IdempotentServiceImpl.getSign(prjName, consumerName, messageId);
+            if (signMessages.putIfAbsent(sign, message) == null)
+                signMessageIds.put(sign, messageId);
+        }
+        List<String> signs = new ArrayList<>(signMessages.keySet());
+        List<String> claimedSigns = storage == STORAGE_DB ? claimInDb(prjName, consumerName, signs, signMessageIds, idempotentMinutes) : claimInRedis(claim, signs);
+        for (String sign : claimedSigns) {
+            claim.getSigns().add(sign);
+            claim.getMessages().add(signMessages.get(sign));
+        }
+        if (claimedSigns.size() < messages.size())
+            log.info("####### skip {} duplicate messages of consumer {}:{}", messages.size() - claimedSigns.size(), prjName, consumerName);
+        return claim;
+    }
+
+    @Override
+    public void markProcessed(IdempotentConsumerClaim<?> claim) {
+        if (claim.isEmpty())
+            return;
+        String prjName = claim.getPrjName();
+        idempotentNamespace.chargeRecords(prjName, claim.getSigns().size());
+        if (claim.getStorage() == STORAGE_DB)
+            return;
+        long seconds = claim.getIdempotentMinutes() * 60L;
+        long expireAtMillis = System.currentTimeMillis() + seconds * 1000;
+        Date validEndTime = new Date(expireAtMillis);
+        List<String> values = new ArrayList<>(claim.getSigns().size());
+        long bytes = 0L;
+        for (String sign : claim.getSigns()) {
+            IdempotentRequest request = new IdempotentRequest();
+            request.setPrjName(prjName);
+            request.setInterfaceName(claim.getConsumerName());
+            request.setSign(sign);
+            request.setStatus(IdempotentRequest.STATUS_SUCCESS);
+            request.setValidEndTime(validEndTime);
+            String value = JSON.toJSONString(request);
+            bytes += value.getBytes(StandardCharsets.UTF_8).length;
+            values.add(value);
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (int i = 0; i < claim.getSigns().size(); i++) {
+                String sign = claim.getSigns().get(i);
+                stringConnection.setEx(idempotentNamespace.key(prjName, String.format(IdempotentServiceImpl.IDEMPOTENT_REDIS_KEY, sign)), seconds, values.get(i));
+                IdempotentRecordServiceImpl.indexRecord(stringConnection, idempotentNamespace, prjName, claim.getConsumerName(), sign, expireAtMillis);
+                // 成功记录写入后再删除认领，其他消费者认领失败时能查到成功记录
+                stringConnection.eval(RELEASE_CLAIM_SCRIPT, ReturnType.INTEGER, 1, claimKey(prjName, sign), claim.getToken());
+            }
+            return null;
+        });
+        idempotentNamespace.chargeBytes(prjName, bytes);
+    }
+
+    @Override
+    public void release(IdempotentConsumerClaim<?> claim) {
+        if (claim.isEmpty() || claim.getStorage() == STORAGE_DB)
+            return;
+        releaseInRedis(claim.getPrjName(), claim.getSigns(), claim.getToken());
+    }
+
+    /**
+     * 数据库认领：先一次查询过滤掉已消费的，再批量插入消费记录（consumer_sign唯一索引冲突说明有并发的消费者在认领，改为逐条认领）
+     * 其他事务插入了相同的consumer_sign还没有提交时，插入会等待它提交或回滚，不会两个消费者同时处理
+     */
+    private List<String> claimInDb(String prjName, String consumerName, List<String> signs, Map<String, String> signMessageIds, int idempotentMinutes) {
+        String table = idempotentNamespace.table(prjName);
+        Set<String> consumedSigns = new HashSet<>(idempotentRequestMapper.listConsumedSigns(table, signs));
+        Date validEndTime = idempotentMinutes > 0 ? DateUtils.addMinutes(new Date(), idempotentMinutes) : null;
+        List<IdempotentRequest> requests = new ArrayList<>(signs.size());
+        for (String sign : signs) {
+            if (consumedSigns.contains(sign))
+                continue;
+            IdempotentRequest request = new IdempotentRequest();
+            request.setPrjName(prjName);
+            request.setInterfaceName(consumerName);
+            request.setBizColumnValues(signMessageIds.get(sign));
+            request.setSign(sign);
+            request.setStatus(IdempotentRequest.STATUS_SUCCESS);
+            request.setValidEndTime(validEndTime);
+            requests.add(request);
+        }
+        if (requests.isEmpty())
+            return Collections.emptyList();
+        List<String> claimedSigns = new ArrayList<>(requests.size());
+        try {
+            idempotentRequestMapper.insertConsumerRecords(table, requests);
+            for (IdempotentRequest request : requests)
+                claimedSigns.add(request.getSign());
+        } catch (DuplicateKeyException e) {
+            for (IdempotentRequest request : requests) {
+                if (claimInDb(table, request))
+                    claimedSigns.add(request.getSign());
+            }
+        }
+        return claimedSigns;
+    }
+
+    /**
+     * 逐条认领：插入冲突时，只有已过期的消费记录可以重新认领
+     */
+    private boolean claimInDb(String table, IdempotentRequest request) {
+        try {
+            idempotentRequestMapper.insertConsumerRecords(table, Collections.singletonList(request));
+            return true;
+        } catch (DuplicateKeyException e) {
+            Integer renewed = idempotentRequestMapper.renewConsumerRecord(table, request.getSign(), request.getValidEndTime());
+            return renewed != null && renewed > 0;
+        }
+    }
+
+    /**
+     * redis认领：一次MGET过滤掉已消费的，再在一个pipeline中SET NX认领key
+     * 认领失败的消息如果还没有成功记录，说明正在被其他消费者处理，释放本次的认领并提醒稍后重试
+     */
+    private List<String> claimInRedis(IdempotentConsumerClaim<?> claim, List<String> signs) {
+        String prjName = claim.getPrjName();
+        Set<String> processedSigns = getProcessedSignsFromRedis(prjName, signs);
+        List<String> candidates = new ArrayList<>(signs.size());
+        for (String sign : signs) {
+            if (!processedSigns.contains(sign))
+                candidates.add(sign);
+        }
+        if (candidates.isEmpty())
+            return candidates;
+        String token = UUID.randomUUID().toString();
+        claim.setToken(token);
+        Expiration expiration = Expiration.seconds(claimSeconds);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (String sign : candidates)
+                stringConnection.set(claimKey(prjName, sign), token, expiration, SetOption.SET_IF_ABSENT);
+            return null;
+        });
+        List<String> claimedSigns = new ArrayList<>(candidates.size());
+        List<String> contendedSigns = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            if (Boolean.TRUE.equals(results.get(i)))
+                claimedSigns.add(candidates.get(i));
+            else
+                contendedSigns.add(candidates.get(i));
+        }
+        if (!contendedSigns.isEmpty()) {
+            // 可能是其他消费者刚处理完（成功记录已写入），再查一次
+            contendedSigns.removeAll(getProcessedSignsFromRedis(prjName, contendedSigns));
+            if (!contendedSigns.isEmpty()) {
+                releaseInRedis(prjName, claimedSigns, token);
+                log.info("####### {} messages of consumer {}:{} are being processed by others, retry later", contendedSigns.size(), prjName, claim.getConsumerName());
+                throw new IdempotentException(CommonErrorEnum.IDEMPOTENT_LOCK_TIMEOUT);
+            }
+        }
+        return claimedSigns;
+    }
+
+    private void releaseInRedis(String prjName, List<String> signs, String token) {
+        if (signs.isEmpty())
+            return;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (String sign : signs)
+                stringConnection.eval(RELEASE_CLAIM_SCRIPT, ReturnType.INTEGER, 1, claimKey(prjName, sign), token);
+            return null;
+        });
+    }
+
+    /**
+     * 一次MGET查出已经消费过的签名
+     */
+    private Set<String> getProcessedSignsFromRedis(String prjName, List<String> signs) {
+        List<String> keys = new ArrayList<>(signs.size());
+        for (String sign : signs)
+            keys.add(idempotentNamespace.key(prjName, String.format(IdempotentServiceImpl.IDEMPOTENT_REDIS_KEY, sign)));
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        Set<String> processedSigns = new HashSet<>();
+        for (int i = 0; i < signs.size(); i++) {
+            String value = values == null ? null : values.get(i);
+            if (StringUtils.isNotBlank(value) && IdempotentRequest.STATUS_SUCCESS.equals(JSON.parseObject(value, IdempotentRequest.class).getStatus()))
+                processedSigns.add(signs.get(i));
+        }
+        return processedSigns;
+    }
+
+    private String claimKey(String prjName, String sign) {
+        return idempotentNamespace.key(prjName, String.format(IDEMPOTENT_CLAIM_REDIS_KEY, sign));
+    }
+
+    private void checkNames(String prjName, String consumerName) {
+        if (StringUtils.isBlank(prjName))
+            throw new IllegalArgumentException("prjName can not be null when calls method[IdempotentConsumerServiceImpl]");
+        if (StringUtils.isBlank(consumerName))
+            throw new IllegalArgumentException("consumerName can not be null when calls method[IdempotentConsumerServiceImpl]");
+    }
+}
@@ -0,0 +1,248 @@
+package com.andy.idempotent.service;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.andy.idempotent.model.IdempotentContext;
+import com.andy.idempotent.model.IdempotentRequest;
+
+/**
+ * 热点签名检测：用本地count-min sketch按时间窗口统计每个签名的请求次数，超过阀值的签名视为热点，
+ * 热点签名的重复请求直接从本地短期缓存返回（或直接拒绝），不再访问redis，避免单个客户端的重复请求打满一个redis分片
+ * @author andy
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "idempotent.hot-key.enabled", havingValue = "true")
+public class IdempotentHotSignDetector {
+
+    public static final Logger log = LoggerFactory.getLogger(IdempotentHotSignDetector.class);
+
+    // 热点处理策略(REPLAY-有本地缓存的成功结果时直接返回，没有时正常处理；REJECT-有本地缓存的成功结果时直接提醒重复请求，没有时正常处理)
+    public static final String POLICY_REPLAY = "REPLAY";
+    public static final String POLICY_REJECT = "REJECT";
+
+    // count-min sketch的行数
+    private static final int DEPTH = 4;
+
+    // count-min sketch每行的计数器个数
+    @Value("${idempotent.hot-key.sketch-width:4096}")
+    private int width;
+
+    // 统计窗口（毫秒）
+    @Value("${idempotent.hot-key.window-millis:1000}")
+    private long windowMillis;
+
+    // 一个窗口内同一签名的请求次数超过这个值视为热点
+    @Value("${idempotent.hot-key.threshold:100}")
+    private int threshold;
+
+    @Value("${idempotent.hot-key.policy:REPLAY}")
+    private String policy;
+
+    // 本地缓存的有效期（秒）
+    @Value("${idempotent.hot-key.local-cache-seconds:5}")
+    private int localCacheSeconds;
+
+    // 本地缓存的最大条数
+    @Value("${idempotent.hot-key.local-cache-size:10000}")
+    private int localCacheSize;
+
+    // 每个窗口最多记录的热点签名个数
+    @Value("${idempotent.hot-key.top-k:20}")
+    private int topK;
+
+    private volatile Window window;
+
+    // 上一个窗口的热点签名及请求次数
+    private volatile Map<String, Integer> lastHotSigns = Collections.emptyMap();
+
+    private final Map<String, CachedRequest> localCache = new ConcurrentHashMap<>();
+
+    // 从本地缓存直接返回的次数
+    private final AtomicLong localHits = new AtomicLong();
+
+    // 直接拒绝的次数
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * 记录一次请求，返回这个签名当前是否是热点
+     */
+    public boolean recordAndCheck(IdempotentContext context, String sign) {
+        Window current = currentWindow();
+        int estimate = current.increment(sign);
+        if (estimate < threshold)
+            return false;
+        // 估算值来自各行计数的最小值，其他签名的碰撞可能让它跳过threshold，所以用>=判断，每个窗口只记录一次
+        if (current.detectedSigns.add(sign))
+            log.warn("####### hot idempotent sign detected, prjName={}, interfaceName={}, sign={}, more than {} requests in {}ms", context.getPrjName(), context.getInterfaceName(), sign, threshold, windowMillis);
+        current.offerHotSign(sign, estimate, topK);
+        return true;
+    }
+
+    /**
+     * 获取本地缓存的成功结果
+     */
+    public IdempotentRequest getCachedRequest(String sign) {
+        CachedRequest cached = localCache.get(sign);
+        if (cached == null)
+            return null;
+        if (cached.expireAt < System.currentTimeMillis()) {
+            localCache.remove(sign, cached);
+            return null;
+        }
+        localHits.incrementAndGet();
+        return cached.request;
+    }
+
+    /**
+     * 缓存热点签名的成功结果（缓存时间不超过幂等有效期）
+     */
+    public void cacheRequest(String sign, IdempotentRequest idempotentRequest) {
+        if (!IdempotentRequest.STATUS_SUCCESS.equals(idempotentRequest.getStatus()))
+            return;
+        long expireAt = System.currentTimeMillis() + localCacheSeconds * 1000L;
+        if (idempotentRequest.getValidEndTime() != null)
+            expireAt = Math.min(expireAt, idempotentRequest.getValidEndTime().getTime());
+        if (localCache.size() >= localCacheSize) {
+            long now = System.currentTimeMillis();
+            localCache.values().removeIf(cached -> cached.expireAt < now);
+            if (localCache.size() >= localCacheSize)
+                return;
+        }
+        localCache.put(sign, new CachedRequest(idempotentRequest, expireAt));
+    }
+
+    public boolean isRejectPolicy() {
+        return POLICY_REJECT.equalsIgnoreCase(policy);
+    }
+
+    public void recordRejected() {
+        rejected.incrementAndGet();
+    }
+
+    /**
+     * 上一个统计窗口的热点签名及请求次数
+     */
+    public Map<String, Integer> getHotSigns() {
+        return lastHotSigns;
+    }
+
+    public long getLocalHits() {
+        return localHits.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private Window currentWindow() {
+        Window current = window;
+        long now = System.currentTimeMillis();
+        if (current == null || now - current.start >= windowMillis) {
+            synchronized (this) {
+                if (window == current) {
+                    if (current != null)
+                        lastHotSigns = Collections.unmodifiableMap(new HashMap<>(current.hotSigns));
+                    window = new Window(now, width);
+                }
+                current = window;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 一个统计窗口
+     */
+    private static class Window {
+
+        private final long start;
+        private final int width;
+        private final AtomicIntegerArray counters;
+        private final Map<String, Integer> hotSigns = new ConcurrentHashMap<>();
+        // 本窗口已经检测到的热点签名（不受topK限制，只用来保证每个签名每个窗口只记录一次日志）
+        private final Set<String> detectedSigns = ConcurrentHashMap.newKeySet();
+        // hotSigns中最小的请求次数（只在加锁时更新，可能偏小，偏小时只是多进一次锁）
+        private volatile int minHotEstimate;
+
+        Window(long start, int width) {
+            this.start = start;
+            this.width = width;
+            this.counters = new AtomicIntegerArray(DEPTH * width);
+        }
+
+        /**
+         * 计数加1，返回估算的次数（各行计数的最小值）
+         */
+        int increment(String sign) {
+            int estimate = Integer.MAX_VALUE;
+            for (int i = 0; i < DEPTH; i++) {
+                int index = i * width + Math.floorMod(hash(sign, i), width);
+                estimate = Math.min(estimate, counters.incrementAndGet(index));
+            }
+            return estimate;
+        }
+
+        /**
+         * 记录热点签名的请求次数，只保留次数最多的topK个：已经在榜上的直接更新次数，
+         * 榜满时新签名的次数超过榜上最小的次数才替换掉它
+         */
+        void offerHotSign(String sign, int estimate, int topK) {
+            if (hotSigns.computeIfPresent(sign, (k, v) -> Math.max(v, estimate)) != null)
+                return;
+            if (hotSigns.size() >= topK && estimate <= minHotEstimate)
+                return;
+            synchronized (this) {
+                if (hotSigns.computeIfPresent(sign, (k, v) -> Math.max(v, estimate)) != null)
+                    return;
+                if (hotSigns.size() >= topK) {
+                    Map.Entry<String, Integer> min = null;
+                    for (Map.Entry<String, Integer> entry : hotSigns.entrySet()) {
+                        if (min == null || entry.getValue() < min.getValue())
+                            min = entry;
+                    }
+                    if (min == null || estimate <= min.getValue())
+                        return;
+                    hotSigns.remove(min.getKey());
+                }
+                hotSigns.put(sign, estimate);
+                int minEstimate = Integer.MAX_VALUE;
+                for (Integer value : hotSigns.values())
+                    minEstimate = Math.min(minEstimate, value);
+                minHotEstimate = minEstimate;
+            }
+        }
+
+        /**
+         * 签名是md5的16进制串，每行直接取其中不同的8位作为哈希值
+         */
+        private int hash(String sign, int row) {
+            if (sign.length() >= (row + 1) * 8)
+                return (int) Long.parseLong(sign.substring(row * 8, (row + 1) * 8), 16);
+            return sign.hashCode() * (31 + row * 2);
+        }
+    }
+
+    private static class CachedRequest {
+
+        private final IdempotentRequest request;
+        private final long expireAt;
+
+        CachedRequest(IdempotentRequest request, long expireAt) {
+            this.request = request;
+            this.expireAt = expireAt;
+        }
+    }
+}
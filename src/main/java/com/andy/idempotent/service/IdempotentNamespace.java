@@ -0,0 +1,234 @@
+package com.andy.idempotent.service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.andy.idempotent.config.IdempotentTenantProperties;
+import com.andy.idempotent.error.CommonErrorEnum;
+import com.andy.idempotent.error.IdempotentException;
+
+/**
+ * 多租户命名空间：按项目名称决定redis key前缀、幂等记录表，并用本地令牌桶限制每个项目的操作数、新增记录数和写入字节数，
+ * 避免一个项目的幂等流量挤占共享的redis/数据库
+ * @author andy
+ *
+ */
+@Component
+public class IdempotentNamespace {
+
+    public static final Logger log = LoggerFactory.getLogger(IdempotentNamespace.class);
+
+    // 表名只允许字母、数字、下划线，可以带schema（表名直接拼接到sql中）
+    private static final Pattern TABLE_PATTERN = Pattern.compile("[A-Za-z0-9_]+(\\.[A-Za-z0-9_]+)?");
+
+    @Autowired
+    private IdempotentTenantProperties properties;
+
+    private final Map<String, Tenant> tenants = new ConcurrentHashMap<>();
+
+    // 所有配置的幂等记录表
+    private Set<String> tables;
+
+    // 幂等记录表 -> 使用这个表的项目的redis key前缀（多个项目共用一个表时取先配置的）
+    private Map<String, String> tableKeyPrefixes;
+
+    /**
+     * 启动时解析单独配置的项目，表名不合法时启动失败
+     */
+    @PostConstruct
+    public void init() {
+        Set<String> configuredTables = new LinkedHashSet<>();
+        Map<String, String> keyPrefixes = new ConcurrentHashMap<>();
+        configuredTables.add(checkTable(properties.getTable()));
+        keyPrefixes.put(properties.getTable(), StringUtils.defaultString(properties.getKeyPrefix()));
+        for (String prjName : properties.getTenants().keySet()) {
+            Tenant tenant = tenants.computeIfAbsent(prjName, this::createTenant);
+            configuredTables.add(tenant.table);
+            keyPrefixes.putIfAbsent(tenant.table, StringUtils.defaultString(tenant.keyPrefix));
+            log.info("####### register idempotent tenant {}, keyPrefix={}, table={}", prjName, tenant.keyPrefix, tenant.table);
+        }
+        tables = Collections.unmodifiableSet(configuredTables);
+        tableKeyPrefixes = keyPrefixes;
+    }
+
+    /**
+     * 给redis key加上项目的前缀
+     */
+    public String key(String prjName, String key) {
+        return withPrefix(getTenant(prjName).keyPrefix, key);
+    }
+
+    private static String withPrefix(String keyPrefix, String key) {
+        return StringUtils.isEmpty(keyPrefix) ? key : keyPrefix + ":" + key;
+    }
+
+    /**
+     * 项目的redis key前缀（用于创建这个前缀下的幂等锁）
+     */
+    public String keyPrefix(String prjName) {
+        return StringUtils.defaultString(getTenant(prjName).keyPrefix);
+    }
+
+    /**
+     * 默认的redis key前缀（用于不属于某个项目的key，如清理任务的锁）
+     */
+    public String defaultKeyPrefix() {
+        return StringUtils.defaultString(properties.getKeyPrefix());
+    }
+
+    /**
+     * 给按幂等记录表维护的redis key（如清理游标）加上使用这个表的项目的前缀
+     */
+    public String tableKey(String table, String key) {
+        return withPrefix(tableKeyPrefixes.getOrDefault(table, properties.getKeyPrefix()), key);
+    }
+
+    /**
+     * 项目的幂等记录表
+     */
+    public String table(String prjName) {
+        return getTenant(prjName).table;
+    }
+
+    /**
+     * 所有配置的幂等记录表（默认表和单独配置的表，用于过期记录清理）
+     */
+    public Set<String> tables() {
+        return tables;
+    }
+
+    /**
+     * 处理请求前的准入：占用一个操作令牌，新增记录数或写入字节数透支时同样拒绝
+     */
+    public void acquireOps(String prjName) {
+        Tenant tenant = getTenant(prjName);
+        // 先检查记录数/字节数是否透支，再占用请求令牌，被拒绝的请求不消耗请求配额
+        if ((tenant.recordsBucket != null && !tenant.recordsBucket.hasTokens())
+                || (tenant.bytesBucket != null && !tenant.bytesBucket.hasTokens())
+                || (tenant.opsBucket != null && !tenant.opsBucket.tryAcquire(1)))
+            reject(prjName, tenant);
+        tenant.ops.incrementAndGet();
+    }
+
+    /**
+     * 新增幂等记录前占用记录令牌（业务方法还没有执行，超出配额直接拒绝）
+     */
+    public void acquireRecords(String prjName, int records) {
+        Tenant tenant = getTenant(prjName);
+        if (tenant.recordsBucket != null && !tenant.recordsBucket.tryAcquire(records))
+            reject(prjName, tenant);
+        tenant.records.addAndGet(records);
+    }
+
+    /**
+     * 业务已经执行完成后记账（允许透支，透支的部分会让后续的请求被拒绝）
+     */
+    public void chargeRecords(String prjName, int records) {
+        Tenant tenant = getTenant(prjName);
+        if (tenant.recordsBucket != null)
+            tenant.recordsBucket.charge(records);
+        tenant.records.addAndGet(records);
+    }
+
+    /**
+     * 记录写入的字节数（允许透支）
+     */
+    public void chargeBytes(String prjName, long bytes) {
+        Tenant tenant = getTenant(prjName);
+        if (tenant.bytesBucket != null)
+            tenant.bytesBucket.charge(bytes);
+        tenant.bytes.addAndGet(bytes);
+    }
+
+    /**
+     * 单独配置的项目（用于监控指标）
+     */
+    public Map<String, Tenant> getConfiguredTenants() {
+        Map<String, Tenant> configured = new LinkedHashMap<>();
+        for (String prjName : properties.getTenants().keySet())
+            configured.put(prjName, getTenant(prjName));
+        return configured;
+    }
+
+    private void reject(String prjName, Tenant tenant) {
+        tenant.rejected.incrementAndGet();
+        log.warn("####### idempotent quota of {} exceeded", prjName);
+        throw new IdempotentException(CommonErrorEnum.IDEMPOTENT_QUOTA_EXCEEDED);
+    }
+
+    private Tenant getTenant(String prjName) {
+        return tenants.computeIfAbsent(prjName == null ? "" : prjName, this::createTenant);
+    }
+
+    private Tenant createTenant(String prjName) {
+        IdempotentTenantProperties.Tenant config = properties.getTenants().get(prjName);
+        if (config == null)
+            config = new IdempotentTenantProperties.Tenant();
+        return new Tenant(
+                config.getKeyPrefix() == null ? properties.getKeyPrefix() : config.getKeyPrefix(),
+                checkTable(config.getTable() == null ? properties.getTable() : config.getTable()),
+                config.getMaxOpsPerSecond() == null ? properties.getMaxOpsPerSecond() : config.getMaxOpsPerSecond(),
+                config.getMaxRecordsPerSecond() == null ? properties.getMaxRecordsPerSecond() : config.getMaxRecordsPerSecond(),
+                config.getMaxBytesPerSecond() == null ? properties.getMaxBytesPerSecond() : config.getMaxBytesPerSecond());
+    }
+
+    private static String checkTable(String table) {
+        if (table == null || !TABLE_PATTERN.matcher(table).matches())
+            throw new IllegalStateException(String.format("invalid idempotent table name '%s', only letters, digits, '_' and an optional schema are allowed", table));
+        return table;
+    }
+
+    /**
+     * 一个项目的命名空间、配额和累计用量
+     */
+    public static class Tenant {
+
+        private final String keyPrefix;
+        private final String table;
+        private final IdempotentTokenBucket opsBucket;
+        private final IdempotentTokenBucket recordsBucket;
+        private final IdempotentTokenBucket bytesBucket;
+        private final AtomicLong ops = new AtomicLong();
+        private final AtomicLong records = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+
+        Tenant(String keyPrefix, String table, long maxOpsPerSecond, long maxRecordsPerSecond, long maxBytesPerSecond) {
+            this.keyPrefix = keyPrefix;
+            this.table = table;
+            this.opsBucket = maxOpsPerSecond > 0 ? new IdempotentTokenBucket(maxOpsPerSecond) : null;
+            this.recordsBucket = maxRecordsPerSecond > 0 ? new IdempotentTokenBucket(maxRecordsPerSecond) : null;
+            this.bytesBucket = maxBytesPerSecond > 0 ? new IdempotentTokenBucket(maxBytesPerSecond) : null;
+        }
+
+        public long getOps() {
+            return ops.get();
+        }
+
+        public long getRecords() {
+            return records.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        public long getRejected() {
+            return rejected.get();
+        }
+    }
+}
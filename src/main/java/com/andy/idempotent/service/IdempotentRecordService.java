@@ -0,0 +1,59 @@
+package com.andy.idempotent.service;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import com.andy.idempotent.model.IdempotentRequest;
+
+/**
+ * 幂等记录管理的接口（基于redis中按项目/接口维护的索引，查询、统计和批量失效幂等记录，不扫描整个redis）
+ * 下面的“过期时间”都是记录在redis中的过期时间，不是validEndTime：启用数据库存储时redis最多缓存1天，幂等有效期更长的记录按redis的过期时间统计
+ * @author andy
+ *
+ */
+public interface IdempotentRecordService {
+
+    /**
+     * 查询有幂等记录的项目名称
+     */
+    public Set<String> listPrjNames();
+
+    /**
+     * 查询项目下有幂等记录的接口名称
+     */
+    public Set<String> listInterfaceNames(String prjName);
+
+    /**
+     * 统计接口下在指定时间范围内过期的幂等记录数
+     *
+     * @param from 过期时间起（为空时取当前时间，即只统计未过期的）
+     * @param to 过期时间止（为空时不限制）
+     */
+    public long count(String prjName, String interfaceName, Date from, Date to);
+
+    /**
+     * 分页查询接口下在指定时间范围内过期的幂等记录（按过期时间升序）
+     *
+     * @param from 过期时间起（为空时取当前时间，即只查询未过期的）
+     * @param to 过期时间止（为空时不限制）
+     */
+    public List<IdempotentRequest> list(String prjName, String interfaceName, Date from, Date to, long offset, long limit);
+
+    /**
+     * 查询指定签名的幂等记录
+     */
+    public IdempotentRequest inspect(String prjName, String sign);
+
+    /**
+     * 批量失效接口下在指定时间范围内过期的幂等记录，同时清除接口下缓存的失败结果
+     * 启用数据库存储时，库里接口下的有效记录（按valid_end_time过滤，永久有效的记录只受from限制）全部过期，返回值为库里过期的记录数
+     *
+     * @param interfaceName 接口名称（为空时失效项目下所有接口的记录）
+     * @param from 过期时间起（为空时不限制）
+     * @param to 过期时间止（为空时不限制）
+     * @return 失效的记录数
+     */
+    public long invalidate(String prjName, String interfaceName, Date from, Date to);
+
+}
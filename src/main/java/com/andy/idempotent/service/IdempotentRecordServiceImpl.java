@@ -0,0 +1,241 @@
+package com.andy.idempotent.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import com.alibaba.fastjson.JSON;
+import com.andy.idempotent.config.IdempotentRedisHolder;
+import com.andy.idempotent.mapper.IdempotentRequestMapper;
+import com.andy.idempotent.model.IdempotentRequest;
+
+/**
+ * 幂等记录管理的实现
+ * 每条写入redis的幂等记录同时维护三级索引：
+ * idempotent:index:prjNames（set，所有项目）-> idempotent:index:prjName:%s（set，项目下的接口）-> idempotent:index:prjName:%s:interfaceName:%s（zset，签名按过期时间排序）
+ * 这里的过期时间是记录在redis中的过期时间：启用数据库存储时redis最多缓存1天，比幂等有效期（validEndTime）长的记录在redis过期后只能从数据库查到
+ * 索引key的过期时间随写入延长到其中最晚过期的记录
+ * 所有项目的索引不加前缀，其余的key按项目加上命名空间前缀
+ * @author andy
+ *
+ */
+@Service("idempotentRecordService")
+public class IdempotentRecordServiceImpl implements IdempotentRecordService {
+
+    public static final Logger log = LoggerFactory.getLogger(IdempotentRecordServiceImpl.class);
+
+    // 所有项目名称的索引key
+    public static final String IDEMPOTENT_INDEX_PRJ_NAMES_KEY = "idempotent:index:prjNames";
+
+    // 项目下接口名称的索引key
+    public static final String IDEMPOTENT_INDEX_PRJ_KEY = "idempotent:index:prjName:%s";
+
+    // 接口下幂等记录签名的索引key（score为redis中记录的过期时间毫秒数，不是validEndTime）
+    public static final String IDEMPOTENT_INDEX_INTERFACE_KEY = "idempotent:index:prjName:%s:interfaceName:%s";
+
+    // 接口下缓存的失败结果签名的索引key（score为失败结果的过期时间毫秒数，批量失效时一起清除）
+    public static final String IDEMPOTENT_INDEX_FAILURE_KEY = "idempotent:index:prjName:%s:interfaceName:%s:failures";
+
+    // 只延长不缩短key的过期时间（没有过期时间或者剩余时间更短时设置为ARGV[1]）
+    private static final String EXTEND_EXPIRE_SCRIPT = "local ttl = redis.call('pttl', KEYS[1]) "
+            + "if ttl == -1 or ttl < tonumber(ARGV[2]) then return redis.call('pexpireat', KEYS[1], ARGV[1]) end return 0";
+
+    // 批量失效时每批处理的记录数
+    public static final int INVALIDATE_BATCH_SIZE = 500;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    public void setIdempotentRedisHolder(IdempotentRedisHolder idempotentRedisHolder) {
+        this.stringRedisTemplate = idempotentRedisHolder.getTemplate();
+    }
+
+    @Autowired
+    private IdempotentRequestMapper idempotentRequestMapper;
+
+    @Autowired
+    private IdempotentNamespace idempotentNamespace;
+
+    @Value("${idempontent.db-enabled:false}")
+    private boolean dbEnabled;
+
+    /**
+     * 在redis pipeline中为一条幂等记录维护索引，同时清理索引中已过期的签名
+     */
+    public static void indexRecord(StringRedisConnection connection, IdempotentNamespace namespace, String prjName, String interfaceName, String sign, long expireAtMillis) {
+        String indexKey = namespace.key(prjName, String.format(IDEMPOTENT_INDEX_INTERFACE_KEY, prjName, interfaceName));
+        String prjKey = namespace.key(prjName, String.format(IDEMPOTENT_INDEX_PRJ_KEY, prjName));
+        long now = System.currentTimeMillis();
+        connection.zAdd(indexKey, expireAtMillis, sign);
+        connection.zRemRangeByScore(indexKey, 0, now);
+        connection.sAdd(prjKey, interfaceName);
+        connection.sAdd(IDEMPOTENT_INDEX_PRJ_NAMES_KEY, prjName);
+        // 索引key的过期时间延长到其中最晚过期的记录，不再有记录写入的接口/项目的索引会自动清理（每个key单独执行，兼容redis集群）
+        String expireAt = Long.toString(expireAtMillis);
+        String remaining = Long.toString(expireAtMillis - now);
+        for (String key : new String[] { indexKey, prjKey, IDEMPOTENT_INDEX_PRJ_NAMES_KEY })
+            connection.eval(EXTEND_EXPIRE_SCRIPT, ReturnType.INTEGER, 1, key, expireAt, remaining);
+    }
+
+    /**
+     * 在redis pipeline中为一条缓存的失败结果维护索引，同时清理索引中已过期的签名
+     */
+    public static void indexFailure(StringRedisConnection connection, IdempotentNamespace namespace, String prjName, String interfaceName, String sign, long expireAtMillis) {
+        String indexKey = namespace.key(prjName, String.format(IDEMPOTENT_INDEX_FAILURE_KEY, prjName, interfaceName));
+        long now = System.currentTimeMillis();
+        connection.zAdd(indexKey, expireAtMillis, sign);
+        connection.zRemRangeByScore(indexKey, 0, now);
+        connection.eval(EXTEND_EXPIRE_SCRIPT, ReturnType.INTEGER, 1, indexKey, Long.toString(expireAtMillis), Long.toString(expireAtMillis - now));
+    }
+
+    @Override
+    public Set<String> listPrjNames() {
+        return stringRedisTemplate.opsForSet().members(IDEMPOTENT_INDEX_PRJ_NAMES_KEY);
+    }
+
+    @Override
+    public Set<String> listInterfaceNames(String prjName) {
+        checkPrjName(prjName);
+        return stringRedisTemplate.opsForSet().members(idempotentNamespace.key(prjName, String.format(IDEMPOTENT_INDEX_PRJ_KEY, prjName)));
+    }
+
+    @Override
+    public long count(String prjName, String interfaceName, Date from, Date to) {
+        checkPrjName(prjName);
+        Long count = stringRedisTemplate.opsForZSet().count(idempotentNamespace.key(prjName, String.format(IDEMPOTENT_INDEX_INTERFACE_KEY, prjName, interfaceName)), getMin(from, true), getMax(to));
+        return count == null ? 0L : count;
+    }
+
+    @Override
+    public List<IdempotentRequest> list(String prjName, String interfaceName, Date from, Date to, long offset, long limit) {
+        checkPrjName(prjName);
+        Set<String> signs = stringRedisTemplate.opsForZSet().rangeByScore(idempotentNamespace.key(prjName, String.format(IDEMPOTENT_INDEX_INTERFACE_KEY, prjName, interfaceName)), getMin(from, true), getMax(to), offset, limit);
+        if (signs == null || signs.isEmpty())
+            return Collections.emptyList();
+        List<String> keys = new ArrayList<>(signs.size());
+        for (String sign : signs)
+            keys.add(idempotentNamespace.key(prjName, String.format(IdempotentServiceImpl.IDEMPOTENT_REDIS_KEY, sign)));
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        List<IdempotentRequest> requests = new ArrayList<>(keys.size());
+        if (values != null) {
+            for (String value : values) {
+                if (StringUtils.isNotBlank(value))
+                    requests.add(JSON.parseObject(value, IdempotentRequest.class));
+            }
+        }
+        return requests;
+    }
+
+    @Override
+    public IdempotentRequest inspect(String prjName, String sign) {
+        checkPrjName(prjName);
+        String value = stringRedisTemplate.opsForValue().get(idempotentNamespace.key(prjName, String.format(IdempotentServiceImpl.IDEMPOTENT_REDIS_KEY, sign)));
+        if (StringUtils.isNotBlank(value))
+            return JSON.parseObject(value, IdempotentRequest.class);
+        return dbEnabled ? idempotentRequestMapper.getRequestBefore(idempotentNamespace.table(prjName), sign) : null;
+    }
+
+    @Override
+    public long invalidate(String prjName, String interfaceName, Date from, Date to) {
+        checkPrjName(prjName);
+        if (StringUtils.isNotBlank(interfaceName))
+            return invalidateInterface(prjName, interfaceName, from, to);
+        long invalidated = 0L;
+        Set<String> interfaceNames = listInterfaceNames(prjName);
+        if (interfaceNames != null) {
+            for (String name : interfaceNames)
+                invalidated += invalidateInterface(prjName, name, from, to);
+        }
+        return invalidated;
+    }
+
+    /**
+     * 按批从索引中取出签名，pipeline中DEL记录并从索引删除，耗时只和匹配的记录数有关（DEL兼容redis 4以下的版本）；
+     * 启用数据库存储时，再按主键分批让库里的有效记录过期（包括已经不在redis中的长期/永久有效记录，否则下次请求会从库里回填）；
+     * 最后清除接口下缓存的失败结果，修复问题后的请求不再重放上次的异常
+     */
+    private long invalidateInterface(String prjName, String interfaceName, Date from, Date to) {
+        String indexKey = idempotentNamespace.key(prjName, String.format(IDEMPOTENT_INDEX_INTERFACE_KEY, prjName, interfaceName));
+        long invalidated = removeIndexed(prjName, indexKey, IdempotentServiceImpl.IDEMPOTENT_REDIS_KEY, getMin(from, false), getMax(to));
+        if (dbEnabled)
+            invalidated = expireInDb(prjName, interfaceName, from, to);
+        String failureIndexKey = idempotentNamespace.key(prjName, String.format(IDEMPOTENT_INDEX_FAILURE_KEY, prjName, interfaceName));
+        long failures = removeIndexed(prjName, failureIndexKey, IdempotentServiceImpl.IDEMPOTENT_FAILURE_REDIS_KEY, 0, Long.MAX_VALUE);
+        log.info("####### invalidate {} idempotent records and {} cached failures of {}:{}", invalidated, failures, prjName, interfaceName);
+        return invalidated;
+    }
+
+    /**
+     * 按批删除索引中指定范围的签名对应的key，返回删除的签名数
+     */
+    private long removeIndexed(String prjName, String indexKey, String keyFormat, double min, double max) {
+        long removed = 0L;
+        while (true) {
+            Set<String> signs = stringRedisTemplate.opsForZSet().rangeByScore(indexKey, min, max, 0, INVALIDATE_BATCH_SIZE);
+            if (signs == null || signs.isEmpty())
+                break;
+            List<String> signList = new ArrayList<>(signs);
+            String[] keys = new String[signList.size()];
+            for (int i = 0; i < signList.size(); i++)
+                keys[i] = idempotentNamespace.key(prjName, String.format(keyFormat, signList.get(i)));
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                stringConnection.del(keys);
+                stringConnection.zRem(indexKey, signList.toArray(new String[0]));
+                return null;
+            });
+            removed += signList.size();
+            if (signList.size() < INVALIDATE_BATCH_SIZE)
+                break;
+        }
+        return removed;
+    }
+
+    /**
+     * 按主键分批让库里接口下的有效记录过期，返回过期的记录数
+     */
+    private long expireInDb(String prjName, String interfaceName, Date from, Date to) {
+        String table = idempotentNamespace.table(prjName);
+        long expired = 0L;
+        Long lastId = 0L;
+        while (true) {
+            List<Long> ids = idempotentRequestMapper.listValidIds(table, prjName, interfaceName, from, to, lastId, INVALIDATE_BATCH_SIZE);
+            if (ids == null || ids.isEmpty())
+                break;
+            Integer updated = idempotentRequestMapper.expireByIds(table, ids);
+            expired += updated == null ? 0 : updated;
+            lastId = ids.get(ids.size() - 1);
+            if (ids.size() < INVALIDATE_BATCH_SIZE)
+                break;
+        }
+        return expired;
+    }
+
+    private double getMin(Date from, boolean defaultNow) {
+        if (from != null)
+            return from.getTime();
+        return defaultNow ? System.currentTimeMillis() : 0;
+    }
+
+    private double getMax(Date to) {
+        return to == null ? Long.MAX_VALUE : to.getTime();
+    }
+
+    private void checkPrjName(String prjName) {
+        if (StringUtils.isBlank(prjName))
+            throw new IllegalArgumentException("prjName can not be null when calls method[IdempotentRecordServiceImpl]");
+    }
+}
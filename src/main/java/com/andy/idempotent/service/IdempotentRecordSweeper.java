@@ -0,0 +1,312 @@
+package com.andy.idempotent.service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import com.andy.idempotent.config.IdempotentLockRegistry;
+import com.andy.idempotent.config.IdempotentRedisHolder;
+import com.andy.idempotent.mapper.IdempotentRequestMapper;
+import com.andy.idempotent.model.IdempotentRequest;
+
+/**
+ * 过期幂等记录清理器
+ * 1-按valid_end_time做keyset分页，删除（或归档后删除）已过期的记录；
+ * 2-按主键做keyset分页，删除创建时间超过保留期、仍处于“新建/失败”状态的记录（主键游标保存在redis中，每次只扫描上次之后新增的记录）；
+ * 多节点部署时通过redis分布式锁保证同一时刻只有一个节点在清理，每批的大小根据数据库耗时自动调整，避免和正常业务抢资源。
+ * 按项目配置了单独的幂等记录表时，依次清理所有的表。
+ * @author andy
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "idempotent.sweeper.enabled", havingValue = "true")
+public class IdempotentRecordSweeper {
+
+    public static final Logger log = LoggerFactory.getLogger(IdempotentRecordSweeper.class);
+
+    // 清理任务的分布式锁key
+    public static final String SWEEPER_LOCK = "idempotent:sweeper";
+
+    // 每个表清理“新建/失败”记录的主键游标key
+    public static final String SWEEPER_STALE_CURSOR_KEY = "idempotent:sweeper:staleCursor:%s";
+
+    // 主键游标的有效期（天），每轮清理后续期；清理停止超过这个时间后从头扫描
+    public static final int SWEEPER_STALE_CURSOR_DAYS = 7;
+
+    @Value("${idempontent.db-enabled:false}")
+    private boolean dbEnabled;
+
+    // 两次清理之间的间隔（毫秒）
+    @Value("${idempotent.sweeper.interval-millis:60000}")
+    private long intervalMillis;
+
+    // 单次清理的最长运行时间（毫秒），需要小于分布式锁的过期时间
+    @Value("${idempotent.sweeper.max-run-millis:30000}")
+    private long maxRunMillis;
+
+    // 分布式锁的过期时间（毫秒）
+    @Value("${idempotent.lock.expire-millis:60000}")
+    private long lockExpireMillis;
+
+    // 批次之间的停顿时间（毫秒）
+    @Value("${idempotent.sweeper.batch-pause-millis:100}")
+    private long batchPauseMillis;
+
+    @Value("${idempotent.sweeper.min-batch-size:10}")
+    private int minBatchSize;
+
+    @Value("${idempotent.sweeper.max-batch-size:1000}")
+    private int maxBatchSize;
+
+    // 单批次（查询+删除）的目标耗时（毫秒），超过就减小批次，否则逐步增大
+    @Value("${idempotent.sweeper.target-batch-millis:50}")
+    private long targetBatchMillis;
+
+    // “新建/失败”状态记录的保留时间（分钟）
+    @Value("${idempotent.sweeper.stale-retention-minutes:1440}")
+    private int staleRetentionMinutes;
+
+    // 删除前是否先归档到表名加_archive后缀的归档表（默认idempotent_request_archive）
+    @Value("${idempotent.sweeper.archive-enabled:false}")
+    private boolean archiveEnabled;
+
+    @Autowired
+    private IdempotentRequestMapper idempotentRequestMapper;
+
+    @Autowired
+    private IdempotentNamespace idempotentNamespace;
+
+    @Autowired(required = false)
+    private IdempotentLockRegistry idempotentLockRegistry;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    public void setIdempotentRedisHolder(IdempotentRedisHolder idempotentRedisHolder) {
+        this.stringRedisTemplate = idempotentRedisHolder.getTemplate();
+    }
+
+    private ScheduledExecutorService executor;
+
+    // 当前批次大小
+    private final AtomicInteger batchSize = new AtomicInteger();
+
+    // 累计清理的过期记录数
+    private final AtomicLong expiredRowsSwept = new AtomicLong();
+
+    // 累计清理的“新建/失败”状态记录数
+    private final AtomicLong staleRowsSwept = new AtomicLong();
+
+    // 每个表的清理滞后时间：最近一次清理开始时，最早一条过期记录已经过期了多久（毫秒）
+    private final Map<String, Long> lagMillis = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void start() {
+        if (!dbEnabled) {
+            log.warn("####### idempotent sweeper is enabled but idempontent.db-enabled is false, sweeper will not start");
+            return;
+        }
+        // 超过锁的过期时间还在清理时，其他节点可以拿到锁同时清理
+        if (maxRunMillis >= lockExpireMillis)
+            throw new IllegalStateException(String.format("idempotent.sweeper.max-run-millis(%d) must be less than idempotent.lock.expire-millis(%d)", maxRunMillis, lockExpireMillis));
+        batchSize.set(minBatchSize);
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "idempotent-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::sweepWithLock, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (executor != null)
+            executor.shutdownNow();
+    }
+
+    /**
+     * 获取分布式锁后执行清理，拿不到锁说明其他节点正在清理，直接跳过
+     */
+    public void sweepWithLock() {
+        Lock lock = idempotentLockRegistry == null ? null : idempotentLockRegistry.obtain(idempotentNamespace.defaultKeyPrefix(), SWEEPER_LOCK);
+        try {
+            if (lock != null && !lock.tryLock())
+                return;
+            try {
+                sweep();
+            } finally {
+                if (lock != null)
+                    lock.unlock();
+            }
+        } catch (Throwable e) {
+            // 清理失败不能影响正常业务，下次调度再试
+            log.error("####### fail when sweep idempotent records", e);
+        }
+    }
+
+    /**
+     * 执行一轮清理
+     */
+    private void sweep() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + maxRunMillis;
+        for (String table : idempotentNamespace.tables()) {
+            long expired = sweepExpired(table, deadline);
+            long stale = sweepStale(table, deadline);
+            if (expired > 0 || stale > 0)
+                log.info("####### idempotent sweeper removed {} expired records and {} stale records from {}, lagMillis={}, batchSize={}", expired, stale, table, lagMillis.get(table), batchSize.get());
+        }
+    }
+
+    /**
+     * 清理已过期的记录
+     */
+    private long sweepExpired(String table, long deadline) throws InterruptedException {
+        Date now = new Date();
+        Date lastValidEndTime = new Date(0L);
+        Long lastId = 0L;
+        long swept = 0L;
+        boolean first = true;
+        while (System.currentTimeMillis() < deadline) {
+            long begin = System.currentTimeMillis();
+            int limit = batchSize.get();
+            List<IdempotentRequest> requests = idempotentRequestMapper.listExpiredRequests(table, now, lastValidEndTime, lastId, limit);
+            if (first) {
+                lagMillis.put(table, requests.isEmpty() ? 0L : now.getTime() - requests.get(0).getValidEndTime().getTime());
+                first = false;
+            }
+            if (requests.isEmpty())
+                break;
+            swept += removeRequests(table, toIds(requests));
+            IdempotentRequest last = requests.get(requests.size() - 1);
+            lastValidEndTime = last.getValidEndTime();
+            lastId = last.getId();
+            adjustBatchSize(System.currentTimeMillis() - begin);
+            if (requests.size() < limit)
+                break;
+            Thread.sleep(batchPauseMillis);
+        }
+        expiredRowsSwept.addAndGet(swept);
+        return swept;
+    }
+
+    /**
+     * 清理创建时间超过保留期、仍处于“新建/失败”状态的记录
+     */
+    private long sweepStale(String table, long deadline) throws InterruptedException {
+        Date staleBefore = DateUtils.addMinutes(new Date(), -staleRetentionMinutes);
+        long swept = 0L;
+        long staleCursorId = getStaleCursorId(table);
+        while (System.currentTimeMillis() < deadline) {
+            long begin = System.currentTimeMillis();
+            int limit = batchSize.get();
+            List<IdempotentRequest> requests = idempotentRequestMapper.listRequestsAfter(table, staleCursorId, limit);
+            if (requests.isEmpty())
+                break;
+            List<Long> staleIds = new ArrayList<>();
+            boolean reachRetention = false;
+            for (IdempotentRequest request : requests) {
+                if (request.getCreateTime() != null && request.getCreateTime().after(staleBefore)) {
+                    // 主键基本按创建时间递增，遇到保留期内的记录说明已经扫完了，游标停在这里，下次从这里继续
+                    reachRetention = true;
+                    break;
+                }
+                if (IdempotentRequest.STATUS_NEW.equals(request.getStatus()) || IdempotentRequest.STATUS_FAIL.equals(request.getStatus()))
+                    staleIds.add(request.getId());
+                staleCursorId = request.getId();
+            }
+            if (!staleIds.isEmpty())
+                swept += removeRequests(table, staleIds);
+            adjustBatchSize(System.currentTimeMillis() - begin);
+            if (reachRetention || requests.size() < limit)
+                break;
+            Thread.sleep(batchPauseMillis);
+        }
+        saveStaleCursorId(table, staleCursorId);
+        staleRowsSwept.addAndGet(swept);
+        return swept;
+    }
+
+    /**
+     * 游标之前的记录都已经超过保留期并检查过（成功的记录不会再变回“新建/失败”），不需要重复扫描
+     * 游标保存在redis中，节点重启或者换节点清理时不用从头扫描整个表
+     */
+    private long getStaleCursorId(String table) {
+        String value = stringRedisTemplate.opsForValue().get(idempotentNamespace.tableKey(table, String.format(SWEEPER_STALE_CURSOR_KEY, table)));
+        return StringUtils.isNumeric(value) ? Long.parseLong(value) : 0L;
+    }
+
+    private void saveStaleCursorId(String table, long cursorId) {
+        stringRedisTemplate.opsForValue().set(idempotentNamespace.tableKey(table, String.format(SWEEPER_STALE_CURSOR_KEY, table)), Long.toString(cursorId), SWEEPER_STALE_CURSOR_DAYS, TimeUnit.DAYS);
+    }
+
+    /**
+     * 删除（或归档后删除）指定的记录
+     */
+    private int removeRequests(String table, List<Long> ids) {
+        if (archiveEnabled)
+            idempotentRequestMapper.archiveByIds(table, ids);
+        Integer deleted = idempotentRequestMapper.deleteByIds(table, ids);
+        return deleted == null ? 0 : deleted;
+    }
+
+    /**
+     * 根据单批次耗时调整批次大小：超过目标耗时减半，否则每次增加最小批次的大小
+     */
+    private void adjustBatchSize(long costMillis) {
+        int current = batchSize.get();
+        if (costMillis > targetBatchMillis)
+            batchSize.set(Math.max(minBatchSize, current / 2));
+        else
+            batchSize.set(Math.min(maxBatchSize, current + minBatchSize));
+    }
+
+    private List<Long> toIds(List<IdempotentRequest> requests) {
+        List<Long> ids = new ArrayList<>(requests.size());
+        for (IdempotentRequest request : requests)
+            ids.add(request.getId());
+        return ids;
+    }
+
+    public long getExpiredRowsSwept() {
+        return expiredRowsSwept.get();
+    }
+
+    public long getStaleRowsSwept() {
+        return staleRowsSwept.get();
+    }
+
+    /**
+     * 所有表中最大的清理滞后时间
+     */
+    public long getLagMillis() {
+        long max = 0L;
+        for (Long lag : lagMillis.values())
+            max = Math.max(max, lag);
+        return max;
+    }
+
+    public int getBatchSize() {
+        return batchSize.get();
+    }
+}
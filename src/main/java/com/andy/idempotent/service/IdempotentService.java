@@ -1,5 +1,7 @@
 package com.andy.idempotent.service;
 
+import java.lang.reflect.Type;
+
 import com.andy.idempotent.model.IdempotentContext;
 
 /**
@@ -19,15 +21,33 @@ public interface IdempotentService {
      */
     public <T> T handle(IdempotentCallback<T> idempotentCallback) throws Throwable;
 
+    /**
+     * 幂等性处理程序（上下文已经由调用方生成好，调用方的实际业务逻辑在executor.execute方法中执行）
+     * 
+     * @param context 幂等上下文
+     * @param resultType 业务方法的返回值类型（重复请求时按这个类型还原上次的结果）
+     * @param executor 业务逻辑
+     * @return T 实际业务方法的返回值
+     * @throws Throwable 
+     */
+    public <T> T handle(IdempotentContext context, Type resultType, IdempotentExecutor<T> executor) throws Throwable;
+
+    /**
+     * 业务逻辑执行接口
+     *
+     */
+    public interface IdempotentExecutor<T> {
+        // 用于执行用户的业务逻辑
+        public T execute() throws Throwable;
+    }
+
     /**
      * 幂等性服务回调接口
      *
      */
-    public interface IdempotentCallback<T> {
+    public interface IdempotentCallback<T> extends IdempotentExecutor<T> {
         // 初始化上下文信息
         public void initContext(IdempotentContext context);
-        // 用于执行用户的业务逻辑
-        public T execute() throws Throwable;
     }
 
 }
@@ -1,13 +1,19 @@
 package com.andy.idempotent.service;
 
 import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
 
 import javax.annotation.Resource;
 
@@ -17,17 +23,28 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ValueOperations;
-import org.springframework.integration.redis.util.RedisLockRegistry;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.ClassUtils;
 import org.springframework.util.DigestUtils;
 
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
+import com.andy.idempotent.config.IdempotentLockRegistry;
+import com.andy.idempotent.config.IdempotentRedisHolder;
 import com.andy.idempotent.error.CommonErrorEnum;
 import com.andy.idempotent.error.IdempotentException;
 import com.andy.idempotent.mapper.IdempotentRequestMapper;
 import com.andy.idempotent.model.IdempotentContext;
+import com.andy.idempotent.model.IdempotentFailure;
 import com.andy.idempotent.model.IdempotentRequest;
 
 /**
@@ -40,18 +57,26 @@ public class IdempotentServiceImpl implements IdempotentService {
 
     public static final Logger log = LoggerFactory.getLogger(IdempotentServiceImpl.class);
 
-    @Resource(name = "stringRedisTemplate")
     private ValueOperations<String, String> redisStringOps;
+
+    private StringRedisTemplate stringRedisTemplate;
     
     @Value("${idempontent.db-enabled:false}")
     private boolean dbEnabled;
 
+    // 获取幂等锁的最长等待时间（毫秒，小于0时一直等待）
+    @Value("${idempotent.lock.wait-millis:10000}")
+    private long lockWaitMillis;
+
     // 幂等锁的key定义
     public static final String IDEMPOTENT_LOCK = "idempotent:prjName:%s:sign:%s";
 
     // redis的幂等记录key
     public static final String IDEMPOTENT_REDIS_KEY = "idempotent:sign:%s";
 
+    // redis的失败结果key
+    public static final String IDEMPOTENT_FAILURE_REDIS_KEY = "idempotent:fail:sign:%s";
+
     // redis的幂等默认缓存有效期1天（如果业务设置的幂等有效期比这个小，使用业务的）
     public static final Integer DEFAULT_IDEMPOTENT_MINUTES = 60 * 24;
     
@@ -64,18 +89,44 @@ public class IdempotentServiceImpl implements IdempotentService {
     @Autowired
     private IdempotentRequestMapper idempotentRequestMapper;
     
-    @Resource(name = "idempotentRedisLockRegistry")
-    private RedisLockRegistry redisLockRegistry;
+    @Resource(name = "idempotentLockRegistry")
+    private IdempotentLockRegistry lockRegistry;
+
+    @Autowired(required = false)
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired(required = false)
+    private IdempotentHotSignDetector hotSignDetector;
+
+    @Autowired
+    private IdempotentCircuitBreaker circuitBreaker;
+
+    @Autowired
+    private IdempotentNamespace idempotentNamespace;
+
+    @Autowired
+    public void setIdempotentRedisHolder(IdempotentRedisHolder idempotentRedisHolder) {
+        this.stringRedisTemplate = idempotentRedisHolder.getTemplate();
+        this.redisStringOps = stringRedisTemplate.opsForValue();
+    }
 
     @Override
     public <T> T handle(IdempotentCallback<T> idempotentCallback) throws Throwable {
         IdempotentContext context = new IdempotentContext();
         idempotentCallback.initContext(context);
+        Type resultType = ((ParameterizedType) idempotentCallback.getClass().getGenericInterfaces()[0]).getActualTypeArguments()[0];
+        return handle(context, resultType, idempotentCallback);
+    }
+
+    @Override
+    public <T> T handle(IdempotentContext context, Type resultType, IdempotentExecutor<T> executor) throws Throwable {
         if (StringUtils.isBlank(context.getPrjName()))
             throw new IllegalArgumentException("prjName can not be null when calls method[IdempotentServiceImpl.handle]");
         if (StringUtils.isBlank(context.getInterfaceName()))
             throw new IllegalArgumentException("interfaceName can not be null when calls method[IdempotentServiceImpl.handle]");
-        return doBizWithLock(idempotentCallback, context, getSign(context));
+        // 项目的配额用完时直接拒绝，不访问redis/数据库
+        idempotentNamespace.acquireOps(context.getPrjName());
+        return doBizWithLock(executor, resultType, context, getSign(context));
     }
 
     /**
@@ -85,56 +136,188 @@ public class IdempotentServiceImpl implements IdempotentService {
      * 2-失败：重新调用业务方法； 
      * 如果出现了“0-新建”的，说明分布式锁出现了问题或者上一次的请求更新结果异常了(如：发布应用时服务器被强制杀掉重启可以导致该问题)，迫不得已，也重新调用业务方法，并更新幂等性记录。
      */
-    private <T> T doBizWithLock(IdempotentCallback<T> idempotentCallback, IdempotentContext context, String sign) throws Throwable {
-        if(redisLockRegistry == null)
+    private <T> T doBizWithLock(IdempotentExecutor<T> executor, Type resultType, IdempotentContext context, String sign) throws Throwable {
+        if(lockRegistry == null)
             throw new RuntimeException("please confirm spring.redis configed");
-        Lock lock = redisLockRegistry.obtain(String.format(IDEMPOTENT_LOCK, context.getPrjName(), sign));
-        lock.lock();
+        // 热点签名优先在本地处理，不访问redis
+        boolean hot = hotSignDetector != null && hotSignDetector.recordAndCheck(context, sign);
+        if (hot) {
+            IdempotentRequest cachedRequest = hotSignDetector.getCachedRequest(sign);
+            // 只有本地缓存了成功结果时才能确定是重复请求，没有时正常处理
+            if (cachedRequest != null) {
+                if (hotSignDetector.isRejectPolicy()) {
+                    hotSignDetector.recordRejected();
+                    throw new IdempotentException(CommonErrorEnum.IDEMPOTENT_REQUEST_EXIST);
+                }
+                return existValid(resultType, context, cachedRequest);
+            }
+        }
+        // redis/数据库熔断时按策略拒绝请求或者不做幂等直接执行业务（在访问redis之前判断）
+        if (!circuitBreaker.allowRequest()) {
+            if (circuitBreaker.isFailOpen()) {
+                log.warn("####### idempotent circuit breaker is open, call biz method without idempotent check, prjName={}, interfaceName={}", context.getPrjName(), context.getInterfaceName());
+                return executor.execute();
+            }
+            throw new IdempotentException(CommonErrorEnum.IDEMPOTENT_SERVICE_UNAVAILABLE);
+        }
         try {
-            IdempotentRequest idempotentRequest = getIdempotentRequest(context, sign);
+            return doBizInLock(executor, resultType, context, sign, hot);
+        } finally {
+            // 试探请求没有记录成功或失败就结束时（如等锁被中断、业务抛出受检异常），释放试探名额，不让熔断器一直打开
+            circuitBreaker.releaseTrial();
+        }
+    }
+
+    private <T> T doBizInLock(IdempotentExecutor<T> executor, Type resultType, IdempotentContext context, String sign, boolean hot) throws Throwable {
+        Lock lock = lockRegistry.obtain(idempotentNamespace.keyPrefix(context.getPrjName()), String.format(IDEMPOTENT_LOCK, context.getPrjName(), sign));
+        acquireLock(lock);
+        try {
+            String recordKey = idempotentNamespace.key(context.getPrjName(), String.format(IDEMPOTENT_REDIS_KEY, sign));
+            String redisIdemptObj;
+            String redisFailureObj = null;
+            try {
+                if (context.isFailureCacheEnabled()) {
+                    // 拿到锁后用一次MGET同时取回缓存的失败结果和幂等记录
+                    List<String> values = redisStringOps.multiGet(Arrays.asList(
+                            idempotentNamespace.key(context.getPrjName(), String.format(IDEMPOTENT_FAILURE_REDIS_KEY, sign)), recordKey));
+                    redisFailureObj = values == null ? null : values.get(0);
+                    redisIdemptObj = values == null ? null : values.get(1);
+                } else {
+                    redisIdemptObj = redisStringOps.get(recordKey);
+                }
+                circuitBreaker.recordSuccess();
+            } catch (RuntimeException e) {
+                circuitBreaker.recordFailure();
+                throw e;
+            }
+            replayFailure(context, sign, redisFailureObj);
+            IdempotentRequest idempotentRequest = getIdempotentRequest(context, sign, redisIdemptObj);
             if (idempotentRequest != null
                     && IdempotentRequest.STATUS_SUCCESS.equals(idempotentRequest.getStatus())
                     && (idempotentRequest.getValidEndTime() == null || idempotentRequest.getValidEndTime().compareTo(new Date()) > 0)) {
-                return existValid(idempotentCallback, context, idempotentRequest);
+                // 热点签名的有效成功结果放入本地缓存，后续的重复请求不再访问redis
+                if (hot)
+                    hotSignDetector.cacheRequest(sign, idempotentRequest);
+                return existValid(resultType, context, idempotentRequest);
             }
-            return notExistValid(idempotentCallback, context, sign, idempotentRequest);
+            if (context.isBindTransaction())
+                return notExistValidInTransaction(executor, context, sign, idempotentRequest);
+            return notExistValid(executor, context, sign, idempotentRequest);
         } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * 释放幂等锁：调用方在外层已经开启了事务时，等事务提交或回滚之后再释放（afterCommit中的redis更新也已完成），
+     * 否则相同的请求在事务提交前拿到锁，查不到还没有提交的幂等记录，会再执行一次业务方法
+     */
+    private void unlock(Lock lock) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive() || !TransactionSynchronizationManager.isSynchronizationActive()) {
             lock.unlock();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                try {
+                    lock.unlock();
+                } catch (Throwable e) {
+                    // 锁已经过期被释放，只打印log，不能影响已经完成的事务
+                    log.error("####### fail when release idempotent lock after transaction completion", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 获取幂等锁，最多等待lockWaitMillis，超时说明相同的请求正在处理中
+     */
+    private void acquireLock(Lock lock) throws InterruptedException {
+        boolean locked;
+        try {
+            if (lockWaitMillis < 0) {
+                lock.lock();
+                locked = true;
+            } else {
+                locked = lock.tryLock(lockWaitMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (RuntimeException e) {
+            circuitBreaker.recordFailure();
+            throw e;
+        }
+        if (!locked) {
+            // redis能正常响应，只是锁被占用，不算失败（同时释放熔断器的试探请求）
+            circuitBreaker.recordSuccess();
+            throw new IdempotentException(CommonErrorEnum.IDEMPOTENT_LOCK_TIMEOUT);
         }
     }
 
     /**
      * 不存在有效幂等记录的处理
      */
-    private <T> T notExistValid(IdempotentCallback<T> idempotentCallback, IdempotentContext context, String sign, IdempotentRequest idempotentRequest) throws Throwable {
+    private <T> T notExistValid(IdempotentExecutor<T> executor, IdempotentContext context, String sign, IdempotentRequest idempotentRequest) throws Throwable {
         idempotentRequest = createIdempotentRequest(context, sign, idempotentRequest);
-        T result = callBizMethod(idempotentCallback, idempotentRequest);
+        T result = callBizMethod(executor, context, sign, idempotentRequest);
         updateSuccessResult(context, sign, idempotentRequest, result);
         return result;
     }
 
+    /**
+     * 在调用方的spring事务中处理（没有事务就新开一个，业务方法上的@Transactional会加入这个事务），
+     * 幂等记录的新增、更新和业务写库使用同一个连接，一次提交；业务回滚时幂等记录一起回滚
+     * 回滚规则和@Transactional的默认规则一致：运行时异常和Error回滚，受检异常提交后再抛出；
+     * 创建幂等记录时抛出的IdempotentException（配额超限、保存失败）还没有写入任何数据，也不把调用方的事务标记为只能回滚
+     */
+    private <T> T notExistValidInTransaction(IdempotentExecutor<T> executor, IdempotentContext context, String sign, IdempotentRequest idempotentRequest) throws Throwable {
+        Throwable[] failure = new Throwable[1];
+        T result = new TransactionTemplate(transactionManager).execute(status -> {
+            IdempotentRequest createdRequest;
+            try {
+                createdRequest = createIdempotentRequest(context, sign, idempotentRequest);
+            } catch (IdempotentException e) {
+                failure[0] = e;
+                return null;
+            }
+            try {
+                T bizResult = callBizMethod(executor, context, sign, createdRequest);
+                updateSuccessResult(context, sign, createdRequest, bizResult);
+                return bizResult;
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                failure[0] = e;
+                return null;
+            }
+        });
+        if (failure[0] != null)
+            throw failure[0];
+        return result;
+    }
+
     /**
      * 存在有效幂等记录的处理
      */
-    private <T> T existValid(IdempotentCallback<T> idempotentCallback, IdempotentContext context, IdempotentRequest idempotentRequest) {
+    private <T> T existValid(Type resultType, IdempotentContext context, IdempotentRequest idempotentRequest) {
         if (IdempotentContext.RESPONSESTRATEGY_REPEAT_NOTICY == context.getResponseStrategy())
             throw new IdempotentException(CommonErrorEnum.IDEMPOTENT_REQUEST_EXIST);
         log.info("####### exist valid idempotent result, no need to call biz method, return directly, idempotentRequest={}", idempotentRequest);
-        Type type = ((ParameterizedType) idempotentCallback.getClass().getGenericInterfaces()[0]).getActualTypeArguments()[0];
-        if (Void.class.getName().equals(type.getTypeName()))
+        if (resultType == void.class || resultType == Void.class)
             return null;
-        return JSON.parseObject(idempotentRequest.getResponse(), type);
+        return JSON.parseObject(idempotentRequest.getResponse(), resultType);
     }
 
     /**
-     * 获取已有的幂等请求记录
+     * 获取已有的幂等请求记录，redis中没有时查库并回填缓存
      */
-    private IdempotentRequest getIdempotentRequest(IdempotentContext context, String sign) {
-        IdempotentRequest idempotentRequest = getIdempotentRequestFromRedis(String.format(IDEMPOTENT_REDIS_KEY, sign));
+    private IdempotentRequest getIdempotentRequest(IdempotentContext context, String sign, String redisIdemptObj) {
+        IdempotentRequest idempotentRequest = null;
+        if (StringUtils.isNotBlank(redisIdemptObj))
+            idempotentRequest = JSON.parseObject(redisIdemptObj, IdempotentRequest.class);
         if (idempotentRequest == null && dbEnabled) {
-            idempotentRequest = idempotentRequestMapper.getRequestBefore(sign);
+            idempotentRequest = callWithCircuitBreaker(() -> idempotentRequestMapper.getRequestBefore(idempotentNamespace.table(context.getPrjName()), sign));
             if (idempotentRequest != null)
-                redisStringOps.set(String.format(IDEMPOTENT_REDIS_KEY, sign), JSON.toJSONString(idempotentRequest), getRedisIdempotentSeconds(context.getIdempotentMinutes()), TimeUnit.SECONDS);
+                cacheIdempotentRequest(context, sign, idempotentRequest);
         }
         return idempotentRequest;
     }
@@ -146,7 +329,8 @@ public class IdempotentServiceImpl implements IdempotentService {
         if (idempotentRequest == null 
                 || IdempotentRequest.STATUS_FAIL.equals(idempotentRequest.getStatus())
                 || idempotentRequest.getValidEndTime().compareTo(new Date()) < 0) {
-            // 不存在或者上次请求失败，就直接插入请求记录，并调用业务方法
+            // 不存在或者上次请求失败，就直接插入请求记录，并调用业务方法（新增记录数超出项目配额时直接拒绝）
+            idempotentNamespace.acquireRecords(context.getPrjName(), 1);
             try {
                 idempotentRequest = new IdempotentRequest();
                 idempotentRequest.setBizColumnValues(getValidBizColumnsValues(context.getBizColumnValues()));
@@ -157,8 +341,10 @@ public class IdempotentServiceImpl implements IdempotentService {
                 idempotentRequest.setStatus(IdempotentRequest.STATUS_NEW);
                 if (context.getIdempotentMinutes() != null && context.getIdempotentMinutes() > 0)
                     idempotentRequest.setValidEndTime(DateUtils.addMinutes(new Date(), context.getIdempotentMinutes()));
-                if (dbEnabled)
-                    idempotentRequestMapper.insert(idempotentRequest);
+                if (dbEnabled) {
+                    IdempotentRequest newRequest = idempotentRequest;
+                    callWithCircuitBreaker(() -> idempotentRequestMapper.insert(idempotentNamespace.table(context.getPrjName()), newRequest));
+                }
             } catch (Throwable e) {
                 log.error("####### fail when add idempotentRequest, idempotentRequest={}", idempotentRequest, e);
                 // 创建幂等记录时还没有调用业务逻辑，如果出现异常则抛出
@@ -174,15 +360,17 @@ public class IdempotentServiceImpl implements IdempotentService {
     /**
      * 调用实际的业务方法
      */
-    private <T> T callBizMethod(IdempotentCallback<T> idempotentCallback, IdempotentRequest idempotentRequest) throws Throwable {
+    private <T> T callBizMethod(IdempotentExecutor<T> executor, IdempotentContext context, String sign, IdempotentRequest idempotentRequest) throws Throwable {
         T result = null;
         try {
-            result = idempotentCallback.execute();
+            result = executor.execute();
         } catch (Throwable e) {
             // 更新请求状态为“失败”
             log.warn("####### fail when execute biz method, idempotentRequest={}", idempotentRequest);
             if (dbEnabled && idempotentRequest.getId() != null)
-                idempotentRequestMapper.updateStatusByPrimaryKey(idempotentRequest.getId(), idempotentRequest.getStatus(), IdempotentRequest.STATUS_FAIL);
+                callWithCircuitBreaker(() -> idempotentRequestMapper.updateStatusByPrimaryKey(idempotentNamespace.table(context.getPrjName()), idempotentRequest.getId(), idempotentRequest.getStatus(), IdempotentRequest.STATUS_FAIL));
+            if (context.isFailureCacheEnabled())
+                cacheFailure(context, sign, e);
             throw e;
         }
         return result;
@@ -192,15 +380,19 @@ public class IdempotentServiceImpl implements IdempotentService {
      * 更新成功的请求结果
      */
     private <T> void updateSuccessResult(IdempotentContext context, String sign, IdempotentRequest idempotentRequest, T result) {
+        if (context.isBindTransaction()) {
+            updateSuccessResultInTransaction(context, sign, idempotentRequest, result);
+            return;
+        }
         try {
             // 更新请求状态为“成功”
             idempotentRequest.setResponse(JSON.toJSONString(result));
             if (dbEnabled && idempotentRequest.getId() != null) {
-                idempotentRequestMapper.updateRequestResult(idempotentRequest.getId(), idempotentRequest.getStatus(), IdempotentRequest.STATUS_SUCCESS, idempotentRequest.getResponse());
+                callWithCircuitBreaker(() -> idempotentRequestMapper.updateRequestResult(idempotentNamespace.table(context.getPrjName()), idempotentRequest.getId(), idempotentRequest.getStatus(), IdempotentRequest.STATUS_SUCCESS, idempotentRequest.getResponse()));
             }
             idempotentRequest.setStatus(IdempotentRequest.STATUS_SUCCESS);
             // 将成功的请求记录放入redis
-            redisStringOps.set(String.format(IDEMPOTENT_REDIS_KEY, sign), JSON.toJSONString(idempotentRequest), getRedisIdempotentSeconds(context.getIdempotentMinutes()), TimeUnit.SECONDS);
+            cacheIdempotentRequest(context, sign, idempotentRequest);
         } catch (Throwable e) {
             // 更新幂等记录的时候，已经调用完了正常业务逻辑，如果出现异常只打印log，不能影响正常业务逻辑
             log.error("####### fail when update idempotentRequest, idempotentRequest={}", idempotentRequest, e);
@@ -208,13 +400,142 @@ public class IdempotentServiceImpl implements IdempotentService {
     }
 
     /**
-     * 获取redis中的幂等记录
+     * 在事务中更新成功的请求结果：更新失败直接抛出，让业务一起回滚；redis在事务提交后再更新
      */
-    private IdempotentRequest getIdempotentRequestFromRedis(String sign) {
-        String redisIdemptObj = redisStringOps.get(sign);
-        if (StringUtils.isNotBlank(redisIdemptObj))
-            return JSON.parseObject(redisIdemptObj, IdempotentRequest.class);
-        return null;
+    private <T> void updateSuccessResultInTransaction(IdempotentContext context, String sign, IdempotentRequest idempotentRequest, T result) {
+        idempotentRequest.setResponse(JSON.toJSONString(result));
+        if (idempotentRequest.getId() != null)
+            callWithCircuitBreaker(() -> idempotentRequestMapper.updateRequestResult(idempotentNamespace.table(context.getPrjName()), idempotentRequest.getId(), idempotentRequest.getStatus(), IdempotentRequest.STATUS_SUCCESS, idempotentRequest.getResponse()));
+        idempotentRequest.setStatus(IdempotentRequest.STATUS_SUCCESS);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                try {
+                    cacheIdempotentRequest(context, sign, idempotentRequest);
+                } catch (Throwable e) {
+                    // 事务已经提交，redis更新失败只打印log，下次请求会从数据库回填
+                    log.error("####### fail when cache idempotentRequest after commit, idempotentRequest={}", idempotentRequest, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 重放缓存的失败结果：终态失败直接抛出上次的异常，临时失败在退避期内提醒稍后重试
+     */
+    private void replayFailure(IdempotentContext context, String sign, String redisFailureObj) throws Throwable {
+        if (StringUtils.isBlank(redisFailureObj))
+            return;
+        IdempotentFailure failure = JSON.parseObject(redisFailureObj, IdempotentFailure.class);
+        if (!failure.isTerminal())
+            throw new IdempotentException(CommonErrorEnum.IDEMPOTENT_REQUEST_BACKOFF);
+        log.info("####### exist cached failure, no need to call biz method, throw directly, sign={}, exception={}", sign, failure.getExceptionClass());
+        throw rebuildException(context, failure);
+    }
+
+    /**
+     * 按异常类名和异常信息重建上次的异常：只允许cacheFailureFor中的类型（含子类），通过public的(String)构造方法创建，
+     * 不满足时抛出IdempotentException（不反序列化redis中的对象，redis被写入的内容不能决定创建哪个类）
+     */
+    private Throwable rebuildException(IdempotentContext context, IdempotentFailure failure) {
+        String message = failure.getMessage();
+        try {
+            Class<?> exceptionClass = ClassUtils.forName(failure.getExceptionClass(), getClass().getClassLoader());
+            if (Throwable.class.isAssignableFrom(exceptionClass) && isAssignableToAny(exceptionClass, context.getCacheFailureFor())
+                    && !isAssignableToAny(exceptionClass, context.getRetryFailureFor())) {
+                Constructor<?> constructor = exceptionClass.getConstructor(String.class);
+                if (Modifier.isPublic(exceptionClass.getModifiers()) && !Modifier.isAbstract(exceptionClass.getModifiers()))
+                    return (Throwable) constructor.newInstance(message);
+            }
+        } catch (Throwable e) {
+            log.warn("####### fail when rebuild cached exception {}, {}", failure.getExceptionClass(), e.toString());
+        }
+        return new IdempotentException(CommonErrorEnum.IDEMPOTENT_REQUEST_FAILED.code(), StringUtils.defaultIfBlank(message, CommonErrorEnum.IDEMPOTENT_REQUEST_FAILED.message()));
+    }
+
+    private boolean isAssignableToAny(Class<?> exceptionClass, List<Class<? extends Throwable>> types) {
+        if (types == null)
+            return false;
+        for (Class<? extends Throwable> type : types) {
+            if (type.isAssignableFrom(exceptionClass))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * 按配置缓存业务方法的失败结果：匹配cacheFailureFor且不匹配retryFailureFor的为终态失败，其余的为临时失败，只在配置了退避时间时缓存
+     */
+    private void cacheFailure(IdempotentContext context, String sign, Throwable e) {
+        try {
+            IdempotentFailure failure = new IdempotentFailure();
+            failure.setExceptionClass(e.getClass().getName());
+            failure.setMessage(e.getMessage());
+            int seconds = context.getRetryBackoffSeconds();
+            if (!isInstanceOfAny(e, context.getRetryFailureFor()) && isInstanceOfAny(e, context.getCacheFailureFor())) {
+                failure.setTerminal(true);
+                seconds = context.getFailureCacheSeconds();
+            }
+            if (seconds <= 0)
+                return;
+            String key = idempotentNamespace.key(context.getPrjName(), String.format(IDEMPOTENT_FAILURE_REDIS_KEY, sign));
+            String value = JSON.toJSONString(failure);
+            long ttlSeconds = seconds;
+            long expireAtMillis = System.currentTimeMillis() + ttlSeconds * 1000L;
+            // 同时维护接口下失败结果的索引，批量失效接口的记录时一起清除
+            callWithCircuitBreaker(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                stringConnection.setEx(key, ttlSeconds, value);
+                IdempotentRecordServiceImpl.indexFailure(stringConnection, idempotentNamespace, context.getPrjName(), context.getInterfaceName(), sign, expireAtMillis);
+                return null;
+            }));
+        } catch (Throwable t) {
+            // 缓存失败结果出现异常只打印log，不能影响业务异常的抛出
+            log.error("####### fail when cache failure, sign={}", sign, t);
+        }
+    }
+
+    private boolean isInstanceOfAny(Throwable e, List<Class<? extends Throwable>> types) {
+        if (types == null)
+            return false;
+        for (Class<? extends Throwable> type : types) {
+            if (type.isInstance(e))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * 将幂等记录放入redis，并在同一个pipeline中维护项目/接口索引
+     */
+    private void cacheIdempotentRequest(IdempotentContext context, String sign, IdempotentRequest idempotentRequest) {
+        long seconds = getRedisIdempotentSeconds(context.getIdempotentMinutes());
+        String value = JSON.toJSONString(idempotentRequest);
+        String key = idempotentNamespace.key(context.getPrjName(), String.format(IDEMPOTENT_REDIS_KEY, sign));
+        callWithCircuitBreaker(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            stringConnection.setEx(key, seconds, value);
+            IdempotentRecordServiceImpl.indexRecord(stringConnection, idempotentNamespace, context.getPrjName(), context.getInterfaceName(), sign, System.currentTimeMillis() + seconds * 1000);
+            return null;
+        }));
+        idempotentNamespace.chargeBytes(context.getPrjName(), value.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    /**
+     * 访问redis/数据库，并把结果记录到熔断器（唯一键冲突等数据库正常返回的异常不算失败；业务方法的异常不经过这里，不影响熔断）
+     */
+    private <R> R callWithCircuitBreaker(Supplier<R> operation) {
+        try {
+            R result = operation.get();
+            circuitBreaker.recordSuccess();
+            return result;
+        } catch (DataIntegrityViolationException e) {
+            circuitBreaker.recordSuccess();
+            throw e;
+        } catch (RuntimeException e) {
+            circuitBreaker.recordFailure();
+            throw e;
+        }
     }
 
     /**
@@ -258,8 +579,15 @@ public class IdempotentServiceImpl implements IdempotentService {
      * 获取请求参数指纹
      */
     private String getSign(IdempotentContext context) {
+        return getSign(context.getPrjName(), context.getInterfaceName(), context.getBizColumnValues());
+    }
+
+    /**
+     * 获取请求参数指纹（供消息消费等其他幂等场景复用，保证和注解方式生成的指纹一致）
+     */
+    public static String getSign(String prjName, String interfaceName, String bizColumnValues) {
         try {
-            return DigestUtils.md5DigestAsHex(String.format("prjName:%s:interfaceName:%s:bizColumnValues:%s", context.getPrjName(), context.getInterfaceName(), context.getBizColumnValues()).getBytes("UTF-8"));
+            return DigestUtils.md5DigestAsHex(String.format("prjName:%s:interfaceName:%s:bizColumnValues:%s", prjName, interfaceName, bizColumnValues).getBytes("UTF-8"));
         } catch (UnsupportedEncodingException e) {
             log.error("####### get idempotent sign error");
             throw new RuntimeException("####### get idempotent sign error", e);
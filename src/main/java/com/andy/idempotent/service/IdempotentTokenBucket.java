@@ -0,0 +1,46 @@
+package com.andy.idempotent.service;
+
+/**
+ * 本地令牌桶（每秒补充rate个令牌，最多积攒1秒的量）
+ * tryAcquire用于处理前的准入；charge用于事后记账，允许透支，透支期间hasTokens返回false，后续请求被拒绝直到补回来
+ * @author andy
+ *
+ */
+public class IdempotentTokenBucket {
+
+    private final double ratePerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public IdempotentTokenBucket(long ratePerSecond) {
+        this.ratePerNano = ratePerSecond / 1e9;
+        this.capacity = ratePerSecond;
+        this.tokens = ratePerSecond;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public synchronized boolean tryAcquire(long permits) {
+        refill();
+        if (tokens < permits)
+            return false;
+        tokens -= permits;
+        return true;
+    }
+
+    public synchronized void charge(long permits) {
+        refill();
+        tokens -= permits;
+    }
+
+    public synchronized boolean hasTokens() {
+        refill();
+        return tokens > 0;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * ratePerNano);
+        lastRefillNanos = now;
+    }
+}
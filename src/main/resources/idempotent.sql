@@ -6,12 +6,34 @@ CREATE TABLE `idempotent_request` (
   `response` varchar(2048) DEFAULT NULL,
   `biz_column_values` varchar(512) DEFAULT NULL,
   `sign` varchar(64) DEFAULT NULL,
+  `consumer_sign` varchar(64) DEFAULT NULL,
   `status` tinyint(1) DEFAULT NULL,
   `valid_end_time` datetime DEFAULT NULL,
   `create_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP,
   `update_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
   PRIMARY KEY (`id`),
   KEY `idx_sign` (`sign`),
+  UNIQUE KEY `uk_consumer_sign` (`consumer_sign`),
   KEY `idx_valid_end_time` (`valid_end_time`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
+-- 已有的表升级（@IdempotentConsumer使用storage=1时需要）：消息消费记录的consumer_sign唯一，用来在处理消息前认领消息
+-- ALTER TABLE `idempotent_request` ADD COLUMN `consumer_sign` varchar(64) DEFAULT NULL AFTER `sign`, ADD UNIQUE KEY `uk_consumer_sign` (`consumer_sign`);
+
+-- 过期记录归档表（idempotent.sweeper.archive-enabled=true时使用）
+CREATE TABLE `idempotent_request_archive` (
+  `id` bigint(19) NOT NULL,
+  `prj_name` varchar(64) DEFAULT NULL,
+  `interface_name` varchar(64) DEFAULT NULL,
+  `request_param` varchar(1024) DEFAULT NULL,
+  `response` varchar(2048) DEFAULT NULL,
+  `biz_column_values` varchar(512) DEFAULT NULL,
+  `sign` varchar(64) DEFAULT NULL,
+  `status` tinyint(1) DEFAULT NULL,
+  `valid_end_time` datetime DEFAULT NULL,
+  `create_time` datetime NOT NULL,
+  `update_time` datetime NOT NULL,
+  `archive_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (`id`),
+  KEY `idx_sign` (`sign`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
\ No newline at end of file